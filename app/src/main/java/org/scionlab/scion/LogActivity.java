@@ -1,31 +1,33 @@
 package org.scionlab.scion;
 
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.FrameMetrics;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.webkit.WebView;
+import android.view.Window;
 import android.widget.AdapterView;
 import android.widget.LinearLayout;
-import android.widget.ScrollView;
 import android.widget.Spinner;
-import android.widget.TextView;
-
-import androidx.annotation.NonNull;
-import androidx.appcompat.app.AppCompatActivity;
 
 import org.scionlab.scion.as.Config;
+import org.scionlab.scion.as.LogStore;
 import org.scionlab.scion.as.Logger;
 
 import androidx.fragment.app.Fragment;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 import timber.log.Timber;
 
 public class LogActivity extends Fragment {
+    private static final LogStore logStore = new LogStore(Config.Logger.LOG_STORE_BYTES, Config.Logger.LOG_STORE_LINES);
     private static Logger.Tree tree;
-    private static StringBuffer buffer = new StringBuffer();
     private static Logger.LogLevel logLevel = Config.Logger.DEFAULT_LOG_LEVEL;
-    private TextView logTextView;
-    private ScrollView scrollView;
+    private LogAdapter logAdapter;
+    private Window.OnFrameMetricsAvailableListener frameMetricsListener;
+    private int frames, jankyFrames, droppedReports;
 
     private MainActivity activity;
 
@@ -33,21 +35,21 @@ public class LogActivity extends Fragment {
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
         LinearLayout layout = (LinearLayout)inflater.inflate(R.layout.activity_log, container, false);
         Spinner logLevelSpinner = layout.findViewById(R.id.logLevelSpinner);
-        scrollView = layout.findViewById(R.id.scrollView);
-        logTextView = layout.findViewById(R.id.logTextView);
+        RecyclerView logRecyclerView = layout.findViewById(R.id.logRecyclerView);
 
         activity = (MainActivity)getActivity();
 
-        Logger.Tree newTree = new Logger.Tree((tag, message) -> activity.runOnUiThread(() -> {
-            logTextView.append(formatMessage(tag, message));
-            scrollDown();
-        }));
         logLevelSpinner.setSelection(logLevel.getValue());
         logLevelSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
             @Override
             public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
-                logLevel = Logger.LogLevel.valueOf((String) parent.getItemAtPosition(position));
+                // also called when the view is created, which must not restart any components
+                Logger.LogLevel selectedLogLevel = Logger.LogLevel.valueOf((String) parent.getItemAtPosition(position));
+                if (selectedLogLevel == logLevel)
+                    return;
+                logLevel = selectedLogLevel;
                 tree.setLogLevel(logLevel);
+                ScionService.setLogLevel(logLevel);
             }
 
             @Override
@@ -55,38 +57,47 @@ public class LogActivity extends Fragment {
             }
         });
 
-        logTextView.append(buffer);
-        scrollDown();
-        buffer = new StringBuffer();
-        plantTree(newTree);
+        plantTree();
+        LinearLayoutManager layoutManager = new LinearLayoutManager(activity);
+        layoutManager.setStackFromEnd(true);
+        logRecyclerView.setLayoutManager(layoutManager);
+        logAdapter = new LogAdapter(logStore, logRecyclerView);
+        logRecyclerView.setAdapter(logAdapter);
+        logStore.setListener((tag, message) -> logAdapter.invalidate());
+        observeFrames();
         return layout;
     }
 
     @Override
-    public void onDestroy() {
-        buffer = new StringBuffer(logTextView.getText());
-        plantTree(new Logger.Tree((tag, message) -> activity.runOnUiThread(() ->
-                LogActivity.append(tag, message))));
-        super.onDestroy();
+    public void onDestroyView() {
+        logStore.setListener(null);
+        activity.getWindow().removeOnFrameMetricsAvailableListener(frameMetricsListener);
+        Timber.i("log view used %d UI updates, %d of %d frames took longer than one refresh interval " +
+                "(%d frame reports were dropped)", logAdapter.getUiPosts(), jankyFrames, frames, droppedReports);
+        super.onDestroyView();
     }
 
-    static void plantTree(Logger.Tree tree) {
-        LogActivity.tree = tree;
+    static void plantTree() {
+        if (tree != null)
+            return;
+        tree = new Logger.Tree(logStore);
+        tree.setLogLevel(logLevel);
         Timber.uprootAll();
         Timber.plant(tree);
     }
 
-    static void append(String tag, String message) {
-        buffer.append(formatMessage(tag, message));
-    }
-
-    @NonNull
-    private static String formatMessage(String tag, String message) {
-        return String.format("%s: %s\n", tag, message);
-    }
-
-    private void scrollDown() {
-        // dont always scroll down or you cannot read older messages!!
-        //scrollView.post(() -> scrollView.fullScroll(View.FOCUS_DOWN));
+    // counts frames that took longer than one refresh interval while the log is shown, and frame reports that
+    // were dropped (because the listener could not keep up), whose frames are not known
+    private void observeFrames() {
+        long frameInterval = (long) (1e9 / activity.getWindowManager().getDefaultDisplay().getRefreshRate());
+        frames = jankyFrames = droppedReports = 0;
+        frameMetricsListener = (window, frameMetrics, dropCountSinceLastInvocation) -> {
+            frames++;
+            if (frameMetrics.getMetric(FrameMetrics.TOTAL_DURATION) > frameInterval)
+                jankyFrames++;
+            droppedReports += dropCountSinceLastInvocation;
+        };
+        activity.getWindow().addOnFrameMetricsAvailableListener(
+                frameMetricsListener, new Handler(Looper.getMainLooper()));
     }
 }
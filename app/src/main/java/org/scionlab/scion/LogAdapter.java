@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2019-2020 Vera Clemens, Tom Kranz, Tom Heimbrodt, Elias Kuiter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.scionlab.scion;
+
+import android.view.LayoutInflater;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import org.scionlab.scion.as.LogStore;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shows the lines of a log store in a RecyclerView, so only visible lines are laid out.
+ * New lines may arrive from any thread at any rate, but the view is updated at most once per
+ * frame: the adapter works on a snapshot of the store's sequence numbers, which is only
+ * advanced (and announced to the RecyclerView) when the next frame is rendered.
+ */
+class LogAdapter extends RecyclerView.Adapter<LogAdapter.ViewHolder> {
+    private final LogStore logStore;
+    private final RecyclerView recyclerView;
+    private final AtomicBoolean updatePending = new AtomicBoolean();
+    private final AtomicInteger uiPosts = new AtomicInteger();
+    private long firstSequence, endSequence;
+
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        private final TextView textView;
+
+        ViewHolder(TextView textView) {
+            super(textView);
+            this.textView = textView;
+        }
+    }
+
+    LogAdapter(LogStore logStore, RecyclerView recyclerView) {
+        this.logStore = logStore;
+        this.recyclerView = recyclerView;
+        synchronized (logStore) {
+            firstSequence = logStore.getFirstSequence();
+            endSequence = logStore.getEndSequence();
+        }
+    }
+
+    // May be called from any thread, coalesces all calls until the next frame into one update.
+    void invalidate() {
+        if (updatePending.compareAndSet(false, true)) {
+            uiPosts.incrementAndGet();
+            recyclerView.postOnAnimation(this::update);
+        }
+    }
+
+    int getUiPosts() {
+        return uiPosts.get();
+    }
+
+    private void update() {
+        updatePending.set(false);
+        long newFirstSequence, newEndSequence;
+        synchronized (logStore) {
+            newFirstSequence = logStore.getFirstSequence();
+            newEndSequence = logStore.getEndSequence();
+        }
+
+        // only follow new lines if the user has not scrolled up to read older ones
+        boolean atBottom = !recyclerView.canScrollVertically(1);
+        int removed = (int) (Math.min(newFirstSequence, endSequence) - firstSequence);
+        int remaining = getItemCount() - removed;
+        int inserted = (int) (newEndSequence - Math.max(newFirstSequence, endSequence));
+        firstSequence = newFirstSequence;
+        endSequence = newEndSequence;
+        if (removed > 0)
+            notifyItemRangeRemoved(0, removed);
+        if (inserted > 0)
+            notifyItemRangeInserted(remaining, inserted);
+        if (atBottom && getItemCount() > 0)
+            recyclerView.scrollToPosition(getItemCount() - 1);
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        return new ViewHolder((TextView) LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.log_line, parent, false));
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        // the line may have been evicted since the last frame, it will be removed in the next one
+        String line = logStore.getBySequence(firstSequence + position);
+        holder.textView.setText(line != null ? line : "");
+    }
+
+    @Override
+    public int getItemCount() {
+        return (int) (endSequence - firstSequence);
+    }
+}
@@ -17,7 +17,6 @@ import com.google.android.material.button.MaterialButton;
 import com.google.android.material.chip.Chip;
 import com.google.android.material.textfield.TextInputLayout;
 
-import org.scionlab.scion.as.Logger;
 import org.scionlab.scion.as.ScionAS;
 
 import java.util.Map;
@@ -64,8 +63,7 @@ public class ScionControlFragment extends Fragment {
             preferences.edit().putString(PING_ADDRESS, pingAddress).apply();
             ScionService.setPingAddress(pingAddress);
         });
-        LogActivity.plantTree(new Logger.Tree((tag, message) -> activity.runOnUiThread(() ->
-                LogActivity.append(tag, message))));
+        LogActivity.plantTree();
 
 
         chips = new Chip[] {
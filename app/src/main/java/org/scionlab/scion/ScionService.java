@@ -34,6 +34,8 @@ import android.widget.Toast;
 
 import androidx.core.app.NotificationCompat;
 
+import org.scionlab.scion.as.Config;
+import org.scionlab.scion.as.Logger;
 import org.scionlab.scion.as.ScionAS;
 import org.scionlab.scion.as.ScionLabAS;
 
@@ -57,6 +59,7 @@ public class ScionService extends Service {
     private static ScionLabAS scionLabAS;
     private static ScionAS.State state = ScionAS.State.STOPPED;
     private static Map<String, ScionAS.State> componentState = new HashMap<>();
+    private static Logger.LogLevel logLevel = Config.Logger.DEFAULT_LOG_LEVEL;
 
     static void start(Context context, String scionLabConfigurationUri, String pingAddress) {
         context.startService(new Intent(context, ScionService.class)
@@ -81,6 +84,12 @@ public class ScionService extends Service {
             scionLabAS.setPingAddress(pingAddress);
     }
 
+    static void setLogLevel(Logger.LogLevel logLevel) {
+        ScionService.logLevel = logLevel;
+        if (scionLabAS != null)
+            scionLabAS.setLogLevel(logLevel);
+    }
+
     @Override
     public void onCreate() {
         super.onCreate();
@@ -91,11 +100,15 @@ public class ScionService extends Service {
         Looper looper = handlerThread.getLooper();
         handler = new Handler(looper);
         scionLabAS = new ScionLabAS(this, (state, componentState) -> {
+            ScionAS.State previousState = ScionService.state;
             ScionService.state = state;
             ScionService.componentState = componentState;
             MainActivity.updateUserInterface(this, state, componentState);
-            notify(state, "SCION is " + state.toString().toLowerCase() + ".");
+            // the notification only shows the AS state, which does not change with every component state
+            if (state != previousState)
+                notify(state, "SCION is " + state.toString().toLowerCase() + ".");
         });
+        scionLabAS.setLogLevel(logLevel);
     }
 
     @Override
@@ -17,6 +17,8 @@
 
 package org.scionlab.scion.as;
 
+import java.io.IOException;
+
 import timber.log.Timber;
 
 import static org.scionlab.scion.as.Config.BorderRouter.*;
@@ -27,17 +29,25 @@ class BorderRouter extends Component {
         return new Class[]{Dispatcher.class, VPNClient.class};
     }
 
+    @Override
+    Supervisor.RestartPolicy getRestartPolicy() {
+        return Supervisor.RestartPolicy.ALWAYS;
+    }
+
     @Override
     boolean prepare() {
-        storage.writeFile(CONFIG_PATH, String.format(
-                storage.readAssetFile(CONFIG_TEMPLATE_PATH),
-                storage.getAbsolutePath(Config.Scion.CONFIG_DIRECTORY_PATH),
-                storage.getAbsolutePath(LOG_PATH),
-                LOG_LEVEL));
-        createLogThread(LOG_PATH, READY_PATTERN)
+        try {
+            storage.writeFile(CONFIG_PATH, Template.get(storage, CONFIG_TEMPLATE_PATH, CONFIG_TEMPLATE_PLACEHOLDERS)
+                    .with("config_dir", storage.getAbsolutePath(Config.Scion.CONFIG_DIRECTORY_PATH))
+                    .with("log", getLogConfiguration(LOG_PATH, READY_LOG_LEVEL))
+                    .render());
+        } catch (IOException e) {
+            Timber.e(e);
+            return false;
+        }
+        createLogReader(LOG_PATH, READY_PATTERN)
                 .watchFor(VPN_NOT_READY_PATTERN, () ->
-                        Timber.e("could not start border router, please check VPN connection"))
-                .start();
+                        Timber.e("could not start border router, please check VPN connection"));
         return true;
     }
 
@@ -17,6 +17,10 @@
 
 package org.scionlab.scion.as;
 
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Pattern;
 
@@ -32,7 +36,13 @@ abstract class Component {
     Storage storage;
     Process process;
     private AtomicReference<Thread> threadRef;
-    private boolean doneWaiting = false, isReady = false;
+    private volatile boolean doneWaiting = false, isReady = false;
+    private volatile boolean stopRequested;
+    private volatile long startTime;
+    private Logger.LogReader logReader;
+    private Tracer.Span untilReady;
+    private Logger.LogLevel readyLogLevel;
+    private String logLevel;
 
     enum State {
         STOPPED, STARTING, READY
@@ -58,15 +68,24 @@ abstract class Component {
     // Is called when the component transitions from STARTING to READY. Should only
     // be called from within run(). Note that a crash of the component should cause
     // run() to exit instead of setting isReady = false;
-    synchronized void setReady() {
-        if (!isReady) {
-            timber().i("component is ready");
-            isReady = true;
+    void setReady() {
+        synchronized (this) {
+            if (!isReady) {
+                timber().i("component is ready");
+                isReady = true;
+                if (untilReady != null)
+                    untilReady.end();
+            }
         }
+        ComponentRegistry componentRegistry = this.componentRegistry;
+        if (componentRegistry != null)
+            componentRegistry.setReady(this);
         notifyStateChange();
     }
 
-    synchronized void notifyStateChange() {
+    // Do not call this while holding this component's lock, as the registry locks all components in turn.
+    void notifyStateChange() {
+        ComponentRegistry componentRegistry = this.componentRegistry;
         if (componentRegistry != null)
             componentRegistry.notifyStateChange();
     }
@@ -88,12 +107,65 @@ abstract class Component {
         }
     }
 
-    Logger.LogThread createLogThread(String logPath, Pattern readyPattern) {
-        storage.prepareFile(logPath);
-        return Logger.createLogThread(getTag(),
-                componentRegistry.getUncaughtExceptionHandler(),
-                storage.getEmptyInputStream(logPath))
-                .watchFor(readyPattern, this::setReady);
+    // Deletes the given databases, unless they may be reused (see DatabaseManager).
+    void prepareDatabases(String... paths) {
+        for (String path : paths) {
+            DatabaseManager.prepare(storage, componentRegistry.mayReuseDatabase(path), path);
+            componentRegistry.setDatabasePrepared(path);
+        }
+    }
+
+    // Returns the [log.*] section of the SCION process' configuration file, which either directs its log output
+    // to the console (i.e., the process' output stream) or to the given log file.
+    String getLogConfiguration(String logPath, Logger.LogLevel readyLogLevel) {
+        String logLevel = getLogLevel(readyLogLevel);
+        return Config.Logger.LOG_TO_CONSOLE
+                ? String.format(Config.Logger.LOG_CONSOLE_CONFIGURATION, logLevel)
+                : String.format(Config.Logger.LOG_FILE_CONFIGURATION, storage.getAbsolutePath(logPath), logLevel,
+                Config.Logger.LOG_ROTATION_SIZE, Config.Logger.LOG_BACKUPS);
+    }
+
+    // Returns the reader for the SCION process' log output (see getLogConfiguration()), which is started along
+    // with the component. When logging to the console, lines are read directly from the process and persisted
+    // to the given log file by a LogFileSink, otherwise, the log file written by the process is tailed.
+    // The process logs at least at the level required to detect when the component is ready (see getLogLevel()),
+    // lines below the level chosen by the user are dropped by the reader after matching them.
+    Logger.LogReader createLogReader(String logPath, Pattern readyPattern) {
+        File logFile = storage.getFile(logPath);
+        // compress segments left over from the last run, further ones are compressed as they are rotated
+        LogFileManager.compressRotatedSegments(logFile);
+        if (Config.Logger.LOG_TO_CONSOLE) {
+            logReader = process.getLogReader();
+            if (Config.Logger.PERSIST_CONSOLE_LOG)
+                logReader.persistTo(LogFileSink.of(logFile));
+        } else {
+            storage.prepareFile(logPath);
+            logReader = Logger.createLogReader(getTag(),
+                    componentRegistry.getUncaughtExceptionHandler(),
+                    storage.getEmptyInputStream(logPath))
+                    .setFileWatcher(FileWatcher.observing(logFile))
+                    .followRotation(logFile, () -> LogFileManager.compressRotatedSegments(logFile));
+        }
+        return logReader.watchFor(readyPattern, this::setReady)
+                .filter(componentRegistry::getLogLevel);
+    }
+
+    // Returns the log level to pass to the SCION process: the level currently chosen by the user,
+    // but at least as verbose as required to detect when the component is ready.
+    String getLogLevel(Logger.LogLevel readyLogLevel) {
+        this.readyLogLevel = readyLogLevel;
+        return logLevel = getProcessLogLevel().getNativeName();
+    }
+
+    private Logger.LogLevel getProcessLogLevel() {
+        Logger.LogLevel logLevel = componentRegistry.getLogLevel();
+        return logLevel.getValue() < readyLogLevel.getValue() ? logLevel : readyLogLevel;
+    }
+
+    // Whether this component's process has been configured with a log level other than it would be now
+    // (changes to less verbose levels than required to detect readiness only change which lines are dropped).
+    boolean hasOutdatedLogLevel() {
+        return logLevel != null && componentRegistry != null && !logLevel.equals(getProcessLogLevel().getNativeName());
     }
 
     synchronized void stateHasChanged() {
@@ -101,53 +173,94 @@ abstract class Component {
             stop();
     }
 
-    synchronized void start() {
+    void start() {
+        if (startThread())
+            notifyStateChange();
+    }
+
+    private synchronized boolean startThread() {
         if (threadRef.get() != null)
-            return;
+            return false;
 
         if (componentRegistry == null) {
             timber().i("not registered with any component registry");
-            return;
+            return false;
         }
 
         timber().i("starting component");
+        doneWaiting = isReady = stopRequested = false;
+        startTime = componentRegistry.getScheduler().now();
         storage = componentRegistry.getStorage();
         String binaryPath = componentRegistry.getBinaryPath();
         if (binaryPath == null)
             throw new RuntimeException("no binary path given");
         process = Process.from(binaryPath, getTag(), storage,
                 componentRegistry.getUncaughtExceptionHandler());
+        logReader = null;
 
-        if (!prepare()) {
-            timber().e("failed to prepare component");
-            return;
+        try (Tracer.Span ignored = Tracer.begin(getTag(), "prepare")) {
+            if (!prepare()) {
+                timber().e("failed to prepare component");
+                return false;
+            }
         }
+        // readers of the process' output stream are started by the process
+        if (logReader != null && logReader.isTailing())
+            logReader.start();
 
+        ComponentRegistry componentRegistry = this.componentRegistry;
         Thread thread = new Thread(() -> {
             try {
-                int retries = 0;
-                for (; retries < Config.Component.READY_RETRIES && !mayRun(); retries++) {
-                    if (retries == 0)
-                        timber().i("waiting until component may run");
-                    Thread.sleep(Config.Component.READY_INTERVAL);
+                // rather than polling, block until all dependencies have called setReady()
+                if (!mayRun()) {
+                    timber().i("waiting until component may run");
+                    long waitingSince = componentRegistry.getScheduler().now();
+                    CompletableFuture<Void> ready = componentRegistry.whenReady(dependsOn());
+                    Scheduler.Task timeout = schedule("readyTimeout", Config.Component.READY_TIMEOUT,
+                            () -> ready.completeExceptionally(new TimeoutException()));
+                    try (Tracer.Span ignored = Tracer.begin(getTag(), "waitForDependencies")) {
+                        ready.get();
+                    }
+                    timeout.cancel();
+                    timber().i("done waiting for component after %d ms",
+                            componentRegistry.getScheduler().now() - waitingSince);
                 }
-                if (retries > 0)
-                    timber().i("done waiting for component");
                 doneWaiting = true;
-                if (mayRun())
+                if (mayRun()) {
+                    synchronized (this) {
+                        untilReady = Tracer.begin(getTag(), Config.Tracer.STARTUP_SPAN);
+                    }
                     run();
+                }
+            } catch (ExecutionException e) {
+                // completed with a TimeoutException by the readyTimeout task
+                timber().e("required components did not become ready in time");
             } catch (InterruptedException ignored) {
             } finally {
                 timber().i("component has stopped");
+                synchronized (this) {
+                    if (untilReady != null)
+                        untilReady.end();
+                    untilReady = null;
+                }
+                if (logReader != null)
+                    logReader.stop();
                 threadRef.set(null);
-                if (componentRegistry != null)
-                    componentRegistry.notifyStateChange();
+                componentRegistry.getScheduler().cancelAll(this);
+                ComponentRegistry _componentRegistry = this.componentRegistry;
+                if (_componentRegistry != null) {
+                    _componentRegistry.setNotReady(this);
+                    if (!stopRequested)
+                        _componentRegistry.getSupervisor().componentExited(this);
+                    _componentRegistry.notifyStateChange();
+                }
             }
         });
         thread.setUncaughtExceptionHandler(componentRegistry.getUncaughtExceptionHandler());
-        thread.start();
+        // set before starting, so a thread that exits right away does not leave a stale reference
         threadRef.set(thread);
-        componentRegistry.notifyStateChange();
+        thread.start();
+        return true;
     }
 
     synchronized void stop() {
@@ -156,10 +269,36 @@ abstract class Component {
             return;
 
         timber().i("stopping component");
+        stopRequested = true;
+        // cancel right away, so no task runs while the thread is still winding down
+        if (componentRegistry != null)
+            componentRegistry.getScheduler().cancelAll(this);
         thread.interrupt();
     }
 
-    private String getTag() {
+    // Blocks until the component's thread has exited (e.g., after calling stop()).
+    void awaitStopped() throws InterruptedException {
+        Thread thread = threadRef.get();
+        if (thread != null)
+            thread.join();
+    }
+
+    // how long (in ms) the component has been running since it was last started
+    long getRunTime() {
+        return componentRegistry.getScheduler().now() - startTime;
+    }
+
+    // Runs the given task after the given delay (in ms), unless the component is stopped before.
+    Scheduler.Task schedule(String name, long delay, Runnable runnable) {
+        return componentRegistry.getScheduler().schedule(this, getTag() + "." + name, delay, runnable);
+    }
+
+    // Runs the given task every period (in ms) until the component is stopped.
+    Scheduler.Task schedulePeriodically(String name, long period, Runnable runnable) {
+        return componentRegistry.getScheduler().schedulePeriodically(this, getTag() + "." + name, period, runnable);
+    }
+
+    String getTag() {
         return getClass().getSimpleName();
     }
 
@@ -182,6 +321,17 @@ abstract class Component {
         return new Class[]{};
     }
 
+    // Override this to define whether the component should be restarted when it exits on its own.
+    Supervisor.RestartPolicy getRestartPolicy() {
+        return Supervisor.RestartPolicy.ON_FAILURE;
+    }
+
+    // Whether the component exited because of a failure, by default, whether its process did not exit successfully.
+    // Override this for components that do not run a process.
+    boolean hasFailed() {
+        return process == null || process.getExitCode() == null || process.getExitCode() != 0;
+    }
+
     // Rverride this to run the actual (long-running) SCION process - everything
     // implemented here should be interruptible (i.e., handles InterruptedException)
     // so we can stop the process any time. This will be called right after mayRun().
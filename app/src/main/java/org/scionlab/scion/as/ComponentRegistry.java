@@ -21,12 +21,23 @@ import android.app.Service;
 
 import org.scionlab.scion.UncaughtExceptionHandler;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.Consumer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import timber.log.Timber;
+
 /**
  * Acts as a central registry for all SCION components (daemon, dispatcher etc.)
  * For each component, exactly one instance may be registered (see Scion).
@@ -35,13 +46,36 @@ class ComponentRegistry {
     private String binaryPath;
     private Service service;
     private Storage storage;
-    private Consumer<Map<String, ScionAS.State>> stateCallback;
+    private final Scheduler scheduler;
+    private final StatePublisher statePublisher;
+    private final ResourceSampler resourceSampler;
+    private final AtomicBoolean startupTraced = new AtomicBoolean();
     private ConcurrentHashMap<Class<? extends Component>, Component> components = new ConcurrentHashMap<>();
+    private ConcurrentHashMap<Class<? extends Component>, CompletableFuture<Void>> readiness = new ConcurrentHashMap<>();
+    private volatile Logger.LogLevel logLevel = Config.Logger.DEFAULT_LOG_LEVEL;
+    private volatile boolean reuseDatabases;
+    private final Set<String> preparedDatabases = ConcurrentHashMap.newKeySet();
+    private final Supervisor supervisor = new Supervisor(this);
+
+    ComponentRegistry(Service service, Storage storage, BiConsumer<ScionAS.State, Map<String, ScionAS.State>> stateCallback) {
+        this(service, storage, stateCallback, Scheduler.getInstance());
+    }
 
-    ComponentRegistry(Service service, Storage storage, Consumer<Map<String, ScionAS.State>> stateCallback) {
+    ComponentRegistry(Service service, Storage storage, BiConsumer<ScionAS.State, Map<String, ScionAS.State>> stateCallback,
+                      Scheduler scheduler) {
         this.service = service;
         this.storage = storage;
-        this.stateCallback = stateCallback;
+        this.scheduler = scheduler;
+        statePublisher = new StatePublisher(this::getComponentState, Scmp.class.getSimpleName(), stateCallback, scheduler);
+        resourceSampler = new ResourceSampler(scheduler, this::getComponentPids);
+    }
+
+    Scheduler getScheduler() {
+        return scheduler;
+    }
+
+    Supervisor getSupervisor() {
+        return supervisor;
     }
 
     UncaughtExceptionHandler getUncaughtExceptionHandler() {
@@ -61,12 +95,99 @@ class ComponentRegistry {
         return binaryPath;
     }
 
+    // Whether components may keep their databases (see DatabaseManager) when they are started. Once prepared,
+    // databases have been built for the current configuration, so they are kept when components are restarted.
+    ComponentRegistry setReuseDatabases(boolean reuseDatabases) {
+        this.reuseDatabases = reuseDatabases;
+        preparedDatabases.clear();
+        return this;
+    }
+
+    boolean mayReuseDatabase(String path) {
+        return reuseDatabases || Config.DatabaseManager.WARM_START && preparedDatabases.contains(path);
+    }
+
+    void setDatabasePrepared(String path) {
+        preparedDatabases.add(path);
+    }
+
+    Logger.LogLevel getLogLevel() {
+        return logLevel;
+    }
+
+    // Sets the log level for SCION processes. Lines below it are dropped right away, but processes
+    // only log less verbosely once they are (re-)started (see Component.getLogLevel()).
+    void setLogLevel(Logger.LogLevel logLevel) {
+        this.logLevel = logLevel;
+    }
+
+    // Restarts all components whose processes do not log at the current log level yet.
+    // This blocks until the affected components have stopped.
+    synchronized void restartComponentsWithOutdatedLogLevel() {
+        components.values().stream()
+                .filter(Component::hasOutdatedLogLevel)
+                .collect(Collectors.toList())
+                .forEach(this::restart);
+    }
+
+    // Restarts the given component as well as all components that (transitively) depend on it,
+    // which are stopped anyway as soon as the component is not ready anymore.
+    synchronized void restart(Component component) {
+        // the component might have been stopped for good in the meantime
+        if (get(component.getClass()) != component)
+            return;
+
+        List<Component> restarted = new ArrayList<>();
+        restarted.add(component);
+        for (int i = 0; i < restarted.size(); i++) {
+            Class<? extends Component> cls = restarted.get(i).getClass();
+            components.values().stream()
+                    .filter(c -> !restarted.contains(c) && Arrays.asList(c.dependsOn()).contains(cls))
+                    .forEach(restarted::add);
+        }
+
+        restarted.forEach(Component::stop);
+        try {
+            for (Component c : restarted)
+                c.awaitStopped();
+        } catch (InterruptedException e) {
+            return;
+        }
+        restarted.stream()
+                .filter(c -> get(c.getClass()) == c)
+                .forEach(Component::start);
+    }
+
     void notifyStateChange() {
         components.values().forEach(Component::stateHasChanged);
-        stateCallback.accept(components.entrySet().stream()
-                .collect(Collectors.toMap(
-                        e -> e.getKey().getSimpleName(),
-                        e -> e.getValue().getScionState())));
+        statePublisher.request();
+    }
+
+    private Map<String, ScionAS.State> getComponentState() {
+        Map<String, ScionAS.State> componentState = new HashMap<>();
+        for (Map.Entry<Class<? extends Component>, Component> entry : components.entrySet())
+            componentState.put(entry.getKey().getSimpleName(), entry.getValue().getScionState());
+        return componentState;
+    }
+
+    // Keyed by the same component names as the state map, but only includes components running a process.
+    private Map<String, Integer> getComponentPids() {
+        Map<String, Integer> componentPids = new HashMap<>();
+        for (Map.Entry<Class<? extends Component>, Component> entry : components.entrySet()) {
+            Process process = entry.getValue().process;
+            int pid = process != null ? process.getPid() : 0;
+            if (pid > 0)
+                componentPids.put(entry.getKey().getSimpleName(), pid);
+        }
+        return componentPids;
+    }
+
+    ResourceSampler getResourceSampler() {
+        return resourceSampler;
+    }
+
+    Map<String, Long> getStatePublisherMetrics() {
+        return statePublisher.getMetrics();
     }
 
     private void register(Component component) {
@@ -82,16 +203,109 @@ class ComponentRegistry {
         if (get(cls) != component)
             throw new RuntimeException("other SCION component registered for " + cls);
         components.remove(cls);
+        readiness.remove(cls);
         component.setComponentRegistry(null);
     }
 
-    ComponentRegistry start(Component component) {
-        register(component);
-        component.start();
+    // Registers the given components and starts them in order of their dependencies, each component is
+    // launched as soon as all components it depends on are ready. Dependencies must be registered (now or
+    // before) and must not be cyclic, otherwise no component is registered or started at all.
+    ComponentRegistry start(Component... components) {
+        if (this.components.isEmpty())
+            startupTraced.set(false);
+        Map<Class<? extends Component>, Component> _components = new LinkedHashMap<>(this.components);
+        for (Component component : components) {
+            Class<? extends Component> cls = component.getClass();
+            if (_components.containsKey(cls))
+                throw new RuntimeException("SCION component for " + cls + " already registered");
+            _components.put(cls, component);
+        }
+
+        List<Component> sorted = new ArrayList<>();
+        Set<Class<? extends Component>> visited = new HashSet<>();
+        for (Component component : components)
+            sortTopologically(_components, component.getClass(), new ArrayList<>(), visited, sorted);
+        sorted.retainAll(Arrays.asList(components));
+
+        sorted.forEach(this::register);
+        sorted.forEach(Component::start);
+        resourceSampler.start();
         return this;
     }
 
+    // Depth-first search that adds dependencies before the components depending on them.
+    private void sortTopologically(Map<Class<? extends Component>, Component> components, Class<? extends Component> cls,
+                                   List<Class<? extends Component>> path, Set<Class<? extends Component>> visited,
+                                   List<Component> sorted) {
+        if (path.contains(cls)) {
+            path.add(cls);
+            throw new RuntimeException("cyclic dependency between SCION components " + path.subList(path.indexOf(cls), path.size())
+                    .stream().map(Class::getSimpleName).collect(Collectors.joining(" -> ")));
+        }
+        if (!visited.add(cls))
+            return;
+
+        Component component = components.get(cls);
+        path.add(cls);
+        for (Class<? extends Component> dependency : getDependencies(component)) {
+            if (!components.containsKey(dependency))
+                throw new RuntimeException("SCION component " + cls.getSimpleName() + " depends on " +
+                        dependency.getSimpleName() + ", which is not registered");
+            sortTopologically(components, dependency, path, visited, sorted);
+        }
+        path.remove(path.size() - 1);
+        sorted.add(component);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Class<? extends Component>> getDependencies(Component component) {
+        List<Class<? extends Component>> dependencies = new ArrayList<>();
+        for (Class cls : component.dependsOn())
+            dependencies.add((Class<? extends Component>) cls);
+        return dependencies;
+    }
+
+    // Called when a component is ready, which launches the components waiting for it.
+    void setReady(Component component) {
+        getReadiness(component.getClass()).complete(null);
+        traceStartup();
+    }
+
+    // Once all components are ready for the first time, summarizes and exports the startup trace (see Tracer).
+    private void traceStartup() {
+        if (!components.values().stream().allMatch(c -> c.getState() == Component.State.READY) ||
+                !startupTraced.compareAndSet(false, true))
+            return;
+        Map<String, List<String>> dependencies = new HashMap<>();
+        for (Component component : components.values())
+            dependencies.put(component.getTag(), getDependencies(component).stream()
+                    .map(Class::getSimpleName).collect(Collectors.toList()));
+        List<Component> _components = new ArrayList<>(components.values());
+        scheduler.schedule(this, "traceStartup", 0, () -> {
+            Tracer.logCriticalPath(_components, dependencies);
+            Tracer.export(storage.getFile(Config.Tracer.TRACE_PATH), StorageMetrics.getMetrics());
+        });
+    }
+
+    // Called when a component has stopped, so components started from now on wait for it to be ready again.
+    void setNotReady(Component component) {
+        readiness.computeIfPresent(component.getClass(), (cls, ready) -> ready.isDone() ? new CompletableFuture<>() : ready);
+    }
+
+    // Completes as soon as all the given components are ready.
+    @SuppressWarnings("unchecked")
+    CompletableFuture<Void> whenReady(Class... classes) {
+        return CompletableFuture.allOf(Stream.of(classes)
+                .map(cls -> getReadiness((Class<? extends Component>) cls))
+                .toArray(CompletableFuture[]::new));
+    }
+
+    private CompletableFuture<Void> getReadiness(Class<? extends Component> cls) {
+        return readiness.computeIfAbsent(cls, _cls -> new CompletableFuture<>());
+    }
+
     void stop(Component component) {
+        supervisor.cancel(component);
         component.stop();
         unregister(component);
     }
@@ -104,8 +318,42 @@ class ComponentRegistry {
         return components.values().stream().anyMatch(component -> component.getState() == state);
     }
 
+    // Stops all components in reverse order of their dependencies, so no component loses a dependency while
+    // running. Each round stops all components that no other remaining component depends on in parallel.
+    // Blocks until all components have stopped, and thus, their processes have exited and been reaped.
     ComponentRegistry stopAll() {
-        components.values().forEach(this::stop);
+        resourceSampler.stop();
+        long stopTime = scheduler.now();
+        List<Component> remaining = new ArrayList<>(components.values());
+        int stopped = remaining.size();
+        boolean interrupted = false;
+        while (!remaining.isEmpty()) {
+            List<Component> independent = remaining.stream()
+                    .filter(c -> remaining.stream().noneMatch(other -> Arrays.asList(other.dependsOn()).contains(c.getClass())))
+                    .collect(Collectors.toList());
+            // dependencies are not cyclic (see start()), but better stop everything than nothing
+            if (independent.isEmpty())
+                independent = new ArrayList<>(remaining);
+
+            for (Component component : independent) {
+                supervisor.cancel(component);
+                component.stop();
+            }
+            for (Component component : independent) {
+                try {
+                    if (!interrupted)
+                        component.awaitStopped();
+                } catch (InterruptedException e) {
+                    // keep stopping the remaining components, but do not wait for them anymore
+                    interrupted = true;
+                }
+                unregister(component);
+            }
+            remaining.removeAll(independent);
+        }
+        Timber.i("stopped %d components in %d ms", stopped, scheduler.now() - stopTime);
+        if (interrupted)
+            Thread.currentThread().interrupt();
         return this;
     }
 
@@ -26,11 +26,53 @@ public class Config {
         static final String WORKING_DIRECTORY_PATH = "EXTERNAL/workdir"; // working directory of SCION processes
         static final String CONFIG_FLAG = "-lib_env_config"; // flag that specifies a configuration file
         static final String DISPATCHER_SOCKET_ENV = "DISPATCHER_SOCKET"; // environment variable that specifies the dispatcher socket
+        static final long STOP_GRACE_PERIOD = 3000; // how long (in ms) to wait for a process to exit after SIGTERM before sending SIGKILL
     }
 
     static class Component {
-        static final int READY_INTERVAL = 250; // how frequently (in ms) to check whether required components are ready
-        static final int READY_RETRIES = 120; // when to give up and stop the component
+        static final long READY_TIMEOUT = 30000; // how long (in ms) to wait for required components to be ready before giving up
+    }
+
+    static class DatabaseManager {
+        static final boolean WARM_START = true; // whether to keep the databases of SCION components across starts with the same configuration
+        static final String DATABASE_DIRECTORY_PATH = "EXTERNAL/databases"; // path to directory containing the databases of all SCION components
+        static final String FINGERPRINT_PATH = DATABASE_DIRECTORY_PATH + "/fingerprint"; // path to fingerprint of the configuration the databases were built for
+    }
+
+    static class Supervisor {
+        static final long RESTART_BACKOFF_MIN = 500; // delay (in ms) before restarting a component for the first time
+        static final long RESTART_BACKOFF_MAX = 30000; // maximum delay (in ms) before restarting a component, which doubles with every restart
+        static final double RESTART_JITTER = 0.5; // fraction of the restart delay that is randomly subtracted from it
+        static final long RESTART_RESET_TIME = 60000; // how long (in ms) a component has to run to restart it with the minimum delay again
+        static final int CRASH_LOOP_RESTARTS = 5; // how many restarts within CRASH_LOOP_WINDOW are tolerated before giving up
+        static final long CRASH_LOOP_WINDOW = 120000; // time window (in ms) in which restarts are counted for crash loop detection
+    }
+
+    static class Tracer {
+        static final String TRACE_PATH = "EXTERNAL/traces/startup.json"; // path to startup trace, to be opened with Perfetto or chrome://tracing
+        static final int MAX_SPANS = 1000; // how many spans to record at most per trace
+        static final String SETUP_CATEGORY = "ScionAS"; // category of spans for setting up the AS before starting components
+        static final String STARTUP_SPAN = "untilReady"; // name of the span from running a component until it is ready
+    }
+
+    static class Storage {
+        static final boolean METRICS = true; // whether to count file operations and their latency (see StorageMetrics)
+        static final String EXTERNAL_TIER = "EXTERNAL"; // tier of paths in external storage
+        static final String INTERNAL_TIER = "INTERNAL"; // tier of paths in internal storage
+        static final String ASSETS_TIER = "ASSETS"; // tier of files read from the assets folder
+        static final String OTHER_TIER = "OTHER"; // tier of files outside of the app's storage (e.g., an imported gen directory)
+    }
+
+    static class ResourceSampler {
+        static final long SAMPLE_INTERVAL = 10000; // how often (in ms) to sample the CPU, memory and I/O usage of SCION processes
+        static final int SAMPLE_HISTORY = 360; // how many samples to keep per component
+        static final String PROC_PATH = "/proc"; // path to the proc filesystem, which contains a directory for each process ID
+        static final int CLOCK_TICKS_PER_SECOND = 100; // unit of CPU times in /proc/[pid]/stat (USER_HZ, which is 100 on Android)
+        static final int BUFFER_SIZE = 4096; // how many bytes to read at most from a file in /proc/[pid]
+    }
+
+    static class StatePublisher {
+        static final long STATE_PUBLISH_INTERVAL = 200; // minimum time (in ms) between two evaluations of the AS state for publishing
     }
 
     public static class Logger {
@@ -44,15 +86,31 @@ public class Config {
         static final String CRIT_PREFIX = "[CRIT] "; // prefix for lines with the crit log level
         static final String SKIP_LINE_PREFIX = "> "; // skip setting the message log level for lines starting with this prefix
         static final Pattern DELETE_PATTERN = Pattern.compile("^\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2}\\.\\d{6}\\+\\d{4} "); // trims information from log output
-        static final long UPDATE_INTERVAL = 1000; // how often (in ms) to poll the log file for updates
+        public static final int LOG_STORE_BYTES = 1 << 20; // how many bytes of log output to keep in memory for display
+        public static final int LOG_STORE_LINES = 10000; // how many lines of log output to keep in memory for display
+        static final long STREAM_FINISH_TIMEOUT = 1000; // how long (in ms) to wait for the rest of a process stream after its process has exited
+        static final int LOG_ROTATION_SIZE = 16; // size (in MiB) at which SCION components rotate their log files
+        static final int LOG_BACKUPS = 3; // how many rotated (and compressed) log files to keep per component
+        static final long WATCH_TIMEOUT = 30000; // how long (in ms) to wait for log file changes before reading anyway (in case inotify is unsupported)
+        static final String LOG_DIRECTORY_PATH = "EXTERNAL/logs"; // path to directory containing all log files, which are indexed for searching
+        static final String APP_LOG_PATH = "EXTERNAL/logs/app.log"; // path to log file for the app's own log output
+        static final long LOG_FLUSH_INTERVAL = 1000; // how long (in ms) to buffer log lines before writing them to a file
+        static final int LOG_FLUSH_SIZE = 65536; // how many characters of log lines to buffer at most before writing them to a file
+        static final boolean LOG_TO_CONSOLE = true; // whether SCION components log to their output stream (read directly) instead of log files (tailed)
+        static final boolean PERSIST_CONSOLE_LOG = true; // whether to write the output of SCION components logging to the console to their log files
+        static final String LOG_CONSOLE_CONFIGURATION = "[log.console]\nlevel = \"%s\""; // configuration for logging to the console, with log level
+        static final String LOG_FILE_CONFIGURATION = "[log.file]\npath = \"%s\"\nlevel = \"%s\"\nsize = %d\nmax_age = 3\nmax_backups = %d"; // configuration for logging to a file, with path, log level, rotation size and backups
+        static final long INDEX_INTERVAL = 2000; // minimum time (in ms) between index updates, so bursts of log output are indexed in batches
+        static final long INDEX_MEMORY_LIMIT = 8 << 20; // how many bytes (estimated) the log index may take before documents with the oldest lines are dropped
     }
 
     static class BorderRouter {
         static final String BINARY_FLAG = "border"; // value of binary's first argument to run the border router
         static final String CONFIG_TEMPLATE_PATH = "border_router.toml"; // path to configuration file template, located in assets folder
+        static final String[] CONFIG_TEMPLATE_PLACEHOLDERS = {"config_dir", "log"}; // placeholders in configuration file template
         static final String CONFIG_PATH = "EXTERNAL/config/border_router.toml"; // path to configuration file
         static final String LOG_PATH = "EXTERNAL/logs/border_router.log"; // path to log file created in external storage
-        static final String LOG_LEVEL = "trace"; // log level passed to process (log messages are later filtered by the Logger.Tree class)
+        static final LogLevel READY_LOG_LEVEL = LogLevel.DEBUG; // least verbose log level at which READY_PATTERN is still logged
         static final Pattern READY_PATTERN = Pattern.compile("^.*Registered with dispatcher.*$"); // when encountered, consider component ready
         static final Pattern VPN_NOT_READY_PATTERN = Pattern.compile("^.*bind: cannot assign requested address.*$"); // occurs when VPN connection is not ready
     }
@@ -60,33 +118,36 @@ public class Config {
     static class ControlServer {
         static final String BINARY_FLAG = "cs"; // value of binary's first argument to run the control server
         static final String CONFIG_TEMPLATE_PATH = "control_server.toml"; // path to configuration file template, located in assets folder
+        static final String[] CONFIG_TEMPLATE_PLACEHOLDERS = {"config_dir", "log", "trust_db", "path_db", "beacon_db"}; // placeholders in configuration file template
         static final String CONFIG_PATH = "EXTERNAL/config/control_server.toml"; // path to configuration file
         static final String LOG_PATH = "EXTERNAL/logs/control_server.log"; // path to log file created in external storage
         static final String TRUST_DATABASE_PATH = "EXTERNAL/databases/control_server.trust.db"; // path to trust SQLite database created in external storage
         static final String PATH_DATABASE_PATH = "EXTERNAL/databases/control_server.path.db"; // path to path SQLite database created in external storage
         static final String BEACON_DATABASE_PATH = "EXTERNAL/databases/control_server.beacon.db"; // path to beacon SQLite database created in external storage
-        static final String LOG_LEVEL = "trace"; // log level passed to process (log messages are later filtered by the Logger.Tree class)
+        static final LogLevel READY_LOG_LEVEL = LogLevel.DEBUG; // least verbose log level at which READY_PATTERN is still logged
         static final Pattern READY_PATTERN = Pattern.compile("^.*Started listening UDP.*$"); // when encountered, consider component ready
     }
 
     static class Daemon {
         static final String BINARY_FLAG = "sciond"; // value of binary's first argument to run the daemon
         static final String CONFIG_TEMPLATE_PATH = "daemon.toml"; // path to configuration file template, located in assets folder
+        static final String[] CONFIG_TEMPLATE_PLACEHOLDERS = {"config_dir", "log", "trust_db", "path_db"}; // placeholders in configuration file template
         static final String CONFIG_PATH = "EXTERNAL/config/daemon.toml"; // path to configuration file
         static final String LOG_PATH = "EXTERNAL/logs/daemon.log"; // path to log file created in external storage
         static final String TRUST_DATABASE_PATH = "EXTERNAL/databases/daemon.trust.db"; // path to trust SQLite database created in external storage
         static final String PATH_DATABASE_PATH = "EXTERNAL/databases/daemon.path.db"; // path to path SQLite database created in external storage
-        static final String LOG_LEVEL = "trace"; // log level passed to process (log messages are later filtered by the Logger.Tree class)
+        static final LogLevel READY_LOG_LEVEL = LogLevel.DEBUG; // least verbose log level at which READY_PATTERN is still logged
         static final Pattern READY_PATTERN = Pattern.compile("^.*started listening.*$"); // when encountered, consider component ready
     }
 
     public static class Dispatcher {
         public static final String BINARY_FLAG = "godispatcher"; // value of binary's first argument to run the dispatcher
         public static final String CONFIG_TEMPLATE_PATH = "dispatcher.toml"; // path to configuration file template, located in assets folder
+        public static final String[] CONFIG_TEMPLATE_PLACEHOLDERS = {"application_socket", "log"}; // placeholders in configuration file template
         public static final String CONFIG_PATH = "EXTERNAL/config/dispatcher.toml"; // path to configuration file
         public static final String LOG_PATH = "EXTERNAL/logs/dispatcher.log"; // path to log file
         public static final String SOCKET_PATH = "INTERNAL/dispatcher.sock"; // path to socket
-        public static final String LOG_LEVEL = "trace"; // log level passed to process (log messages are later filtered by the Logger.Tree class)
+        public static final LogLevel READY_LOG_LEVEL = LogLevel.DEBUG; // least verbose log level at which READY_PATTERN is still logged
         public static final Pattern READY_PATTERN = Pattern.compile("^.*Dispatcher starting.*$"); // when encountered, consider component ready
     }
 
@@ -109,14 +170,19 @@ public class Config {
         public static final String SCIONLAB_BINARY_PATH = "libscion-scionlab.so"; // file name of SCION's scionlab binary in jniLibs (shipped and used by default)
         public static final String VERSION_FLAG = "-lib_env_version"; // flag to obtain version information
         public static final String CONFIG_DIRECTORY_PATH = "EXTERNAL/config"; // path to config directory where all configuration files are stored
-        public static final String TMP_DIRECTORY_PATH = "EXTERNAL/tmp"; // path to temporary directory used for extracting SCIONLab configuration
-        public static final String TMP_GEN_DIRECTORY_PATH = TMP_DIRECTORY_PATH + "/gen"; // path to gen directory extracted from configuration
-        public static final String TMP_VPN_CONFIG_PATH_REGEX = "^client.*\\.conf$"; // regex for OpenVPN configuration extracted from configuration
+        public static final String VPN_CONFIG_PATH_REGEX = "^client.*\\.conf$"; // regex for OpenVPN configuration in SCIONLab configuration
+        public static final String GEN_DIRECTORY_PATH_REGEX = "^gen$"; // regex for gen directory in SCIONLab configuration
         public static final String GEN_DIRECTORY_PATH = "EXTERNAL/gen"; // path to gen directory created in external storage
         public static final String CERTS_DIRECTORY_PATH = CONFIG_DIRECTORY_PATH + "/certs"; // path to certs directory created in external storage
         public static final String KEYS_DIRECTORY_PATH = CONFIG_DIRECTORY_PATH + "/keys"; // path to keys directory created in external storage
         public static final String TOPOLOGY_PATH = CONFIG_DIRECTORY_PATH + "/topology.json"; // path to topology file created in external storage
+        public static final String VPN_CONFIG_PATH = CONFIG_DIRECTORY_PATH + "/client.conf"; // path to OpenVPN configuration copied from imported configuration
+        public static final String CONFIGURATION_HASH_PATH = CONFIG_DIRECTORY_PATH + "/configuration.sha256"; // path to hash of the imported configuration the config directory was written for
+        public static final String STAGED_CONFIG_DIRECTORY_PATH = "EXTERNAL/config.staged"; // path to directory where the configuration is written before it replaces the config directory
+        public static final int CONFIGURATION_SIZE_LIMIT = 16 << 20; // number of bytes allowed in imported configuration archive (failsafe if the user chooses wrong)
+        public static final int CONFIGURATION_ENTRY_LIMIT = 1000; // number of entries (files and directories) allowed in imported configuration archive (failsafe if the user chooses wrong)
         public static final String TOPOLOGY_TEMPLATE_PATH = "topology.json"; // path to topology file template, located in assets folder
+        public static final String[] TOPOLOGY_TEMPLATE_PLACEHOLDERS = {"ia", "remote_ia", "public_overlay_addr", "public_overlay_port", "remote_overlay_addr", "remote_overlay_port"}; // placeholders in topology file template
         public static final int GEN_DIRECTORY_FILE_LIMIT = 100; // number of files allowed in imported directory (failsafe if the user chooses wrong)
         public static final String ISD_DIRECTORY_PATH_REGEX = "^ISD.*$"; // regex for ISD directory
         public static final String AS_DIRECTORY_PATH_REGEX = "^AS.*$"; // regex for AS directory
@@ -136,7 +202,7 @@ public class Config {
 
     public static class VPNClient {
         public static final String PACKAGE_NAME = "de.blinkt.openvpn"; // package name of OpenVPN application
-        static final int CRASH_INTERVAL = 1000; // how frequently (in ms) to check whether OpenVPN has crashed
+        static final long DUMMY_READY_DELAY = 1000; // how long (in ms) it takes the dummy VPN client (without configuration) to be ready
         static final String NOPROCESS_STATE = "NOPROCESS"; // state of OpenVPN application when no process is running
         static final String VPN_GENERATE_CONFIG = "VPN_GENERATE_CONFIG"; // state of OpenVPN application when VPN configuration is generated
         static final String CONNECTED_STATE = "CONNECTED"; // OpenVPN connected state (see https://openvpn.net/community-resources/management-interface/)
@@ -17,6 +17,10 @@
 
 package org.scionlab.scion.as;
 
+import java.io.IOException;
+
+import timber.log.Timber;
+
 import static org.scionlab.scion.as.Config.ControlServer.*;
 
 class ControlServer extends Component {
@@ -25,18 +29,27 @@ class ControlServer extends Component {
         return new Class[]{Dispatcher.class, VPNClient.class};
     }
 
+    @Override
+    Supervisor.RestartPolicy getRestartPolicy() {
+        return Supervisor.RestartPolicy.ALWAYS;
+    }
+
     @Override
     boolean prepare() {
-        storage.prepareFiles(TRUST_DATABASE_PATH, PATH_DATABASE_PATH, BEACON_DATABASE_PATH);
-        storage.writeFile(CONFIG_PATH, String.format(
-                storage.readAssetFile(CONFIG_TEMPLATE_PATH),
-                storage.getAbsolutePath(Config.Scion.CONFIG_DIRECTORY_PATH),
-                storage.getAbsolutePath(LOG_PATH),
-                LOG_LEVEL,
-                storage.getAbsolutePath(TRUST_DATABASE_PATH),
-                storage.getAbsolutePath(PATH_DATABASE_PATH),
-                storage.getAbsolutePath(BEACON_DATABASE_PATH)));
-        createLogThread(LOG_PATH, READY_PATTERN).start();
+        prepareDatabases(TRUST_DATABASE_PATH, PATH_DATABASE_PATH, BEACON_DATABASE_PATH);
+        try {
+            storage.writeFile(CONFIG_PATH, Template.get(storage, CONFIG_TEMPLATE_PATH, CONFIG_TEMPLATE_PLACEHOLDERS)
+                    .with("config_dir", storage.getAbsolutePath(Config.Scion.CONFIG_DIRECTORY_PATH))
+                    .with("log", getLogConfiguration(LOG_PATH, READY_LOG_LEVEL))
+                    .with("trust_db", storage.getAbsolutePath(TRUST_DATABASE_PATH))
+                    .with("path_db", storage.getAbsolutePath(PATH_DATABASE_PATH))
+                    .with("beacon_db", storage.getAbsolutePath(BEACON_DATABASE_PATH))
+                    .render());
+        } catch (IOException e) {
+            Timber.e(e);
+            return false;
+        }
+        createLogReader(LOG_PATH, READY_PATTERN);
         return true;
     }
 
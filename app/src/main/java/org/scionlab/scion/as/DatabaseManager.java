@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2019-2020 Vera Clemens, Tom Kranz, Tom Heimbrodt, Elias Kuiter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.scionlab.scion.as;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import timber.log.Timber;
+
+import static org.scionlab.scion.as.Config.DatabaseManager.*;
+
+/**
+ * Decides whether the SQLite databases of SCION components (trust, path and beacon databases) are
+ * kept when the AS is started. Rebuilding them means fetching TRCs and waiting for beacons and
+ * paths again, which delays the AS from becoming healthy. So they are only deleted when the
+ * configuration they were built for (IA, certificates, keys and the SCION binary) has changed, as
+ * recorded by a fingerprint, or when they are corrupt or do not look like SCION databases at all.
+ */
+class DatabaseManager {
+    private static final String[] JOURNAL_SUFFIXES = {"-journal", "-wal", "-shm"};
+
+    // Compares the fingerprint of the current configuration with the one of the last start.
+    // Returns whether databases built for the last start may be reused. Otherwise, the old fingerprint and all
+    // databases are deleted before the new fingerprint is recorded, so that, should the app be killed in between,
+    // the next start never finds databases of another configuration along with a matching fingerprint.
+    static boolean checkFingerprint(Storage storage, File binary) {
+        String fingerprint = getFingerprint(storage.getFile(Config.Scion.CONFIG_DIRECTORY_PATH), binary,
+                storage.getFile(Config.Scion.CERTS_DIRECTORY_PATH), storage.getFile(Config.Scion.KEYS_DIRECTORY_PATH),
+                storage.getFile(Config.Scion.TOPOLOGY_PATH));
+        if (fingerprint != null && storage.getFile(FINGERPRINT_PATH).isFile() &&
+                fingerprint.equals(storage.readFile(FINGERPRINT_PATH)))
+            return WARM_START;
+
+        Timber.i("configuration has changed, databases will be rebuilt");
+        storage.deleteFileOrDirectory(FINGERPRINT_PATH);
+        storage.deleteFileOrDirectory(DATABASE_DIRECTORY_PATH);
+        if (fingerprint != null) {
+            try {
+                storage.writeFile(FINGERPRINT_PATH, fingerprint);
+            } catch (IOException e) {
+                Timber.e(e);
+                storage.deleteFileOrDirectory(FINGERPRINT_PATH);
+            }
+        }
+        return false;
+    }
+
+    // Keeps the given databases if they may be reused and are intact, otherwise deletes them so they are rebuilt.
+    static void prepare(Storage storage, boolean reuse, String... paths) {
+        for (String path : paths) {
+            File database = storage.getFile(path);
+            if (reuse && database.exists()) {
+                long checkTime = System.nanoTime();
+                boolean intact = isIntact(database);
+                Timber.i("checked database %s in %d ms: %s", database.getName(),
+                        (System.nanoTime() - checkTime) / 1000000, intact ? "reusing it" : "rebuilding it");
+                if (intact)
+                    continue;
+            }
+            storage.prepareFile(path);
+            // a journal left behind would otherwise be applied to the new database
+            for (String suffix : JOURNAL_SUFFIXES)
+                storage.deleteFileOrDirectory(path + suffix);
+        }
+    }
+
+    // Whether the database passes SQLite's quick check (which checks everything but indices against their tables)
+    // and has been set up by SCION, which records the version of its schema as the user version once it has created
+    // all tables (so foreign or half-created databases have none). A schema of another SCION version is not checked
+    // for, as a changed binary changes the fingerprint. Databases are opened read-only, so Android does not change
+    // their journal mode.
+    private static boolean isIntact(File database) {
+        try (SQLiteDatabase db = SQLiteDatabase.openDatabase(database.getPath(), null,
+                SQLiteDatabase.OPEN_READONLY | SQLiteDatabase.NO_LOCALIZED_COLLATORS)) {
+            try (Cursor cursor = db.rawQuery("PRAGMA quick_check", null)) {
+                if (!cursor.moveToFirst() || !"ok".equals(cursor.getString(0)))
+                    return false;
+            }
+            try (Cursor cursor = db.rawQuery("PRAGMA user_version", null)) {
+                if (!cursor.moveToFirst() || cursor.getLong(0) <= 0)
+                    return false;
+            }
+            try (Cursor cursor = db.rawQuery("SELECT count(*) FROM sqlite_master WHERE type = 'table'", null)) {
+                return cursor.moveToFirst() && cursor.getLong(0) > 0;
+            }
+        } catch (SQLiteException e) {
+            Timber.w("could not check database %s: %s", database.getName(), e);
+            return false;
+        }
+    }
+
+    // SHA-256 over the names (relative to the configuration directory) and contents of the given files and all files
+    // in the given directories (in a fixed order), and the size and modification time of the binary (which change
+    // when the app is updated). Files generated for each start, such as configuration files of components, are left out.
+    private static String getFingerprint(File configDirectory, File binary, File... filesOrDirectories) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(String.format("%s %d %d\n", binary.getName(), binary.length(), binary.lastModified())
+                    .getBytes(StandardCharsets.UTF_8));
+            List<File> files = new ArrayList<>();
+            for (File fileOrDirectory : filesOrDirectories)
+                listFiles(fileOrDirectory, files);
+            Collections.sort(files);
+            byte[] buffer = new byte[8192];
+            for (File file : files) {
+                digest.update(configDirectory.toURI().relativize(file.toURI()).getPath().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                try (InputStream inputStream = new FileInputStream(file)) {
+                    for (int len = inputStream.read(buffer); len > 0; len = inputStream.read(buffer))
+                        digest.update(buffer, 0, len);
+                }
+            }
+            return Storage.toHexString(digest.digest());
+        } catch (NoSuchAlgorithmException | IOException e) {
+            Timber.e(e);
+            return null;
+        }
+    }
+
+    private static void listFiles(File fileOrDirectory, List<File> files) {
+        File[] children = fileOrDirectory.listFiles();
+        if (children == null) {
+            if (fileOrDirectory.isFile())
+                files.add(fileOrDirectory);
+            return;
+        }
+        for (File child : children)
+            listFiles(child, files);
+    }
+}
@@ -17,21 +17,35 @@
 
 package org.scionlab.scion.as;
 
+import java.io.IOException;
+
+import timber.log.Timber;
+
 import static org.scionlab.scion.as.Config.Dispatcher.*;
 
 /**
  * Dispatches requests/responses from other SCION components to the outside world and vice-versa.
  */
 class Dispatcher extends Component {
+    @Override
+    Supervisor.RestartPolicy getRestartPolicy() {
+        // this is a long-running service, so it should not exit at all
+        return Supervisor.RestartPolicy.ALWAYS;
+    }
+
     @Override
     boolean prepare() {
         storage.prepareFile(SOCKET_PATH);
-        storage.writeFile(CONFIG_PATH, String.format(
-                storage.readAssetFile(CONFIG_TEMPLATE_PATH),
-                storage.getAbsolutePath(SOCKET_PATH),
-                storage.getAbsolutePath(LOG_PATH),
-                LOG_LEVEL));
-        createLogThread(LOG_PATH, READY_PATTERN).start();
+        try {
+            storage.writeFile(CONFIG_PATH, Template.get(storage, CONFIG_TEMPLATE_PATH, CONFIG_TEMPLATE_PLACEHOLDERS)
+                    .with("application_socket", storage.getAbsolutePath(SOCKET_PATH))
+                    .with("log", getLogConfiguration(LOG_PATH, READY_LOG_LEVEL))
+                    .render());
+        } catch (IOException e) {
+            Timber.e(e);
+            return false;
+        }
+        createLogReader(LOG_PATH, READY_PATTERN);
         return true;
     }
 
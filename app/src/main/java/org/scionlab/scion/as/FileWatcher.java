@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2019-2020 Vera Clemens, Tom Kranz, Tom Heimbrodt, Elias Kuiter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.scionlab.scion.as;
+
+import android.os.FileObserver;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Tells a log reader (or the log index) when it is worth reading from its file(s) again.
+ * Files are observed with inotify (see FileObserver), so the log ingester only wakes up when a
+ * tailed file actually changes. JVM tests may substitute their own implementation and invoke
+ * the callback themselves.
+ */
+interface FileWatcher {
+    // Starts watching, the callback is invoked (from any thread) whenever the file (possibly) changed.
+    void watch(Runnable changeCallback);
+
+    // Releases all resources held by this watcher, called when the log reader stops.
+    default void close() {
+    }
+
+    static FileWatcher observing(File file) {
+        return new Observing(file.getParentFile(), file.getName());
+    }
+
+    // Watches all files in a directory.
+    static FileWatcher observingDirectory(File directory) {
+        return new Observing(directory, null);
+    }
+
+    // There is one FileObserver per directory, shared by all watchers of files in it: before API level 29,
+    // FileObserver keys observers by their inotify watch descriptor, which is the same for all observers of a
+    // directory, so only the last one would receive events, and stopping any of them would stop all of them.
+    class Observing implements FileWatcher {
+        private static final int MASK = FileObserver.MODIFY | FileObserver.CREATE | FileObserver.MOVED_TO;
+        private static final Map<String, DirectoryObserver> directoryObservers = new HashMap<>();
+        private final File directory;
+        private final String name;
+        private volatile Runnable changeCallback;
+
+        private Observing(File directory, String name) {
+            this.directory = directory;
+            this.name = name;
+        }
+
+        @Override
+        public void watch(Runnable changeCallback) {
+            synchronized (directoryObservers) {
+                DirectoryObserver directoryObserver = directoryObservers.get(directory.getPath());
+                if (directoryObserver == null) {
+                    directoryObserver = new DirectoryObserver(directory);
+                    directoryObservers.put(directory.getPath(), directoryObserver);
+                    directoryObserver.startWatching();
+                }
+                this.changeCallback = changeCallback;
+                directoryObserver.watchers.add(this);
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (directoryObservers) {
+                DirectoryObserver directoryObserver = directoryObservers.get(directory.getPath());
+                if (directoryObserver == null || !directoryObserver.watchers.remove(this))
+                    return;
+                // the observer is only stopped once no one watches the directory anymore
+                if (directoryObserver.watchers.isEmpty()) {
+                    directoryObserver.stopWatching();
+                    directoryObservers.remove(directory.getPath());
+                }
+            }
+        }
+
+        // Observes the directory, as files in it may be replaced (e.g., by log rotation),
+        // and dispatches its events to the watchers of the affected file.
+        private static class DirectoryObserver extends FileObserver {
+            private final List<Observing> watchers = new CopyOnWriteArrayList<>();
+
+            @SuppressWarnings("deprecation")
+            DirectoryObserver(File directory) {
+                super(directory.getPath(), MASK);
+            }
+
+            @Override
+            public void onEvent(int event, String path) {
+                for (Observing watcher : watchers)
+                    if (watcher.name == null || watcher.name.equals(path))
+                        watcher.changeCallback.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2019-2020 Vera Clemens, Tom Kranz, Tom Heimbrodt, Elias Kuiter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.scionlab.scion.as;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Matches log lines against all watched patterns in a single pass.
+ * Most watched patterns are of the form ^.*literal.*$ (see READY_PATTERN in Config), so their
+ * literals are compiled into an Aho-Corasick automaton that scans each line exactly once.
+ * Only patterns that actually need regular expressions are matched one by one.
+ */
+class LineMatcher {
+    private static final Pattern LITERAL_PATTERN = Pattern.compile("^\\^\\.\\*([^\\\\.\\[\\]{}()*+?^$|]+)\\.\\*\\$$");
+    private static final int ALPHABET = 128; // all literals are ASCII, other characters never match
+
+    private final ArrayList<String> literals = new ArrayList<>();
+    private final ArrayList<Runnable> literalCallbacks = new ArrayList<>();
+    private final ArrayList<Pattern> patterns = new ArrayList<>();
+    private final ArrayList<Matcher> matchers = new ArrayList<>();
+    private final ArrayList<Runnable> patternCallbacks = new ArrayList<>();
+    private int[][] transitions; // state x character -> state
+    private int[][] outputs; // state -> indices of literals that end in this state
+    private int[] lastMatched; // line number on which each literal was last matched
+    private int lineNumber;
+
+    LineMatcher add(Pattern pattern, Runnable callback) {
+        Matcher m = LITERAL_PATTERN.matcher(pattern.pattern());
+        if (pattern.flags() == 0 && m.matches() && isAscii(m.group(1))) {
+            literals.add(m.group(1));
+            literalCallbacks.add(callback);
+            transitions = null;
+        } else {
+            patterns.add(pattern);
+            matchers.add(pattern.matcher(""));
+            patternCallbacks.add(callback);
+        }
+        return this;
+    }
+
+    // Runs the callback of every pattern that matches the given line (at most once per line).
+    void match(String line) {
+        if (!literals.isEmpty()) {
+            if (transitions == null)
+                compile();
+            lineNumber++;
+            int state = 0;
+            for (int i = 0, n = line.length(); i < n; i++) {
+                char c = line.charAt(i);
+                state = c < ALPHABET ? transitions[state][c] : 0;
+                for (int literal : outputs[state])
+                    if (lastMatched[literal] != lineNumber) {
+                        lastMatched[literal] = lineNumber;
+                        literalCallbacks.get(literal).run();
+                    }
+            }
+        }
+
+        for (int i = 0; i < matchers.size(); i++)
+            if (matchers.get(i).reset(line).matches())
+                patternCallbacks.get(i).run();
+    }
+
+    private void compile() {
+        // build a trie of all literals
+        ArrayList<int[]> trie = new ArrayList<>();
+        ArrayList<int[]> trieOutputs = new ArrayList<>();
+        trie.add(newState());
+        trieOutputs.add(new int[0]);
+        for (int literal = 0; literal < literals.size(); literal++) {
+            int state = 0;
+            for (char c : literals.get(literal).toCharArray()) {
+                if (trie.get(state)[c] < 0) {
+                    trie.get(state)[c] = trie.size();
+                    trie.add(newState());
+                    trieOutputs.add(new int[0]);
+                }
+                state = trie.get(state)[c];
+            }
+            trieOutputs.set(state, append(trieOutputs.get(state), literal));
+        }
+
+        // turn the trie into a DFA by following failure links in breadth-first order
+        int[] failure = new int[trie.size()];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < ALPHABET; c++) {
+            int next = trie.get(0)[c];
+            if (next < 0)
+                trie.get(0)[c] = 0;
+            else
+                queue.add(next);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.remove();
+            for (int c = 0; c < ALPHABET; c++) {
+                int next = trie.get(state)[c];
+                int fallback = trie.get(failure[state])[c];
+                if (next < 0)
+                    trie.get(state)[c] = fallback;
+                else {
+                    failure[next] = fallback;
+                    for (int literal : trieOutputs.get(fallback))
+                        trieOutputs.set(next, append(trieOutputs.get(next), literal));
+                    queue.add(next);
+                }
+            }
+        }
+
+        transitions = trie.toArray(new int[0][]);
+        outputs = trieOutputs.toArray(new int[0][]);
+        lastMatched = new int[literals.size()];
+        lineNumber = 0;
+    }
+
+    private static int[] newState() {
+        int[] state = new int[ALPHABET];
+        Arrays.fill(state, -1);
+        return state;
+    }
+
+    private static int[] append(int[] array, int value) {
+        int[] result = Arrays.copyOf(array, array.length + 1);
+        result[array.length] = value;
+        return result;
+    }
+
+    private static boolean isAscii(String s) {
+        return s.chars().allMatch(c -> c < ALPHABET);
+    }
+}
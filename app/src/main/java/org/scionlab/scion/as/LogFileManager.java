@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2019-2020 Vera Clemens, Tom Kranz, Tom Heimbrodt, Elias Kuiter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.scionlab.scion.as;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+import timber.log.Timber;
+
+import static org.scionlab.scion.as.Config.Logger.*;
+
+/**
+ * Compresses rotated log files in the background.
+ * SCION components rotate their own log files once they reach LOG_ROTATION_SIZE (the native
+ * logger keeps writing to the same path, so it has to be the one to switch files). The rotated
+ * segments are named like "dispatcher-<timestamp>.log" and are gzipped here, while the native
+ * logger takes care of removing segments beyond LOG_BACKUPS. Log files written by the app itself
+ * (see LogFileSink) are rotated and pruned here in the same way.
+ */
+class LogFileManager {
+    private static final String COMPRESSED_EXTENSION = ".gz";
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+    private static final String SEGMENT_DATE_FORMAT = "yyyy-MM-dd'T'HH-mm-ss.SSS";
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, LogFileManager.class.getSimpleName());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static void compressRotatedSegments(File logFile) {
+        executor.execute(() -> compress(logFile));
+    }
+
+    // Renames a log file written by the app to a segment named like the native logger does.
+    static void rotate(File logFile) {
+        SimpleDateFormat dateFormat = new SimpleDateFormat(SEGMENT_DATE_FORMAT, Locale.ROOT);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        String[] nameAndExtension = splitExtension(logFile.getName());
+        File segment = new File(logFile.getParentFile(),
+                nameAndExtension[0] + "-" + dateFormat.format(new Date()) + nameAndExtension[1]);
+        if (!logFile.renameTo(segment)) {
+            Timber.e("could not rotate log file %s", logFile);
+            return;
+        }
+        executor.execute(() -> {
+            compress(logFile);
+            prune(logFile);
+        });
+    }
+
+    private static String[] splitExtension(String name) {
+        int extensionIndex = name.lastIndexOf('.');
+        return extensionIndex < 0
+                ? new String[]{name, ""}
+                : new String[]{name.substring(0, extensionIndex), name.substring(extensionIndex)};
+    }
+
+    private static void compress(File logFile) {
+        String[] nameAndExtension = splitExtension(logFile.getName());
+        String prefix = nameAndExtension[0] + "-";
+        String extension = nameAndExtension[1];
+        File[] segments = logFile.getParentFile().listFiles((dir, segmentName) ->
+                segmentName.startsWith(prefix) && segmentName.endsWith(extension));
+        if (segments == null)
+            return;
+
+        for (File segment : segments) {
+            File compressed = new File(segment.getPath() + COMPRESSED_EXTENSION);
+            File temporary = new File(compressed.getPath() + TEMPORARY_EXTENSION);
+            byte[] buffer = new byte[65536];
+            try (InputStream in = new FileInputStream(segment);
+                 OutputStream out = new GZIPOutputStream(new FileOutputStream(temporary), buffer.length)) {
+                for (int len = in.read(buffer); len > 0; len = in.read(buffer))
+                    out.write(buffer, 0, len);
+            } catch (IOException e) {
+                Timber.e(e);
+                //noinspection ResultOfMethodCallIgnored
+                temporary.delete();
+                continue;
+            }
+            if (!temporary.renameTo(compressed) || !segment.delete())
+                Timber.e("could not compress rotated log file %s", segment);
+        }
+    }
+
+    // Deletes the oldest compressed segments beyond LOG_BACKUPS (their names sort chronologically).
+    private static void prune(File logFile) {
+        String[] nameAndExtension = splitExtension(logFile.getName());
+        String prefix = nameAndExtension[0] + "-";
+        String suffix = nameAndExtension[1] + COMPRESSED_EXTENSION;
+        File[] segments = logFile.getParentFile().listFiles((dir, segmentName) ->
+                segmentName.startsWith(prefix) && segmentName.endsWith(suffix));
+        if (segments == null || segments.length <= LOG_BACKUPS)
+            return;
+        Arrays.sort(segments);
+        for (int i = 0; i < segments.length - LOG_BACKUPS; i++)
+            if (!segments[i].delete())
+                Timber.e("could not delete old log file %s", segments[i]);
+    }
+}
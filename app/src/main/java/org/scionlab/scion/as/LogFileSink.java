@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2019-2020 Vera Clemens, Tom Kranz, Tom Heimbrodt, Elias Kuiter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.scionlab.scion.as;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.scionlab.scion.as.Config.Logger.*;
+
+/**
+ * Appends log lines to a file in batches, so that writing a line does not block on I/O.
+ * Lines are buffered until LOG_FLUSH_INTERVAL has passed or LOG_FLUSH_SIZE is reached, then
+ * written by a shared background thread. Lines are prefixed with a timestamp in the same format
+ * SCION components use, and the file is rotated like theirs (see LogFileManager). There is at most
+ * one sink per file, which stays open for the lifetime of the app.
+ */
+class LogFileSink {
+    private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, LogFileSink.class.getSimpleName());
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Map<String, LogFileSink> sinks = new HashMap<>();
+    private static final AtomicLong linesWritten = new AtomicLong(), bytesWritten = new AtomicLong(),
+            flushes = new AtomicLong(), totalDelay = new AtomicLong(), maxDelay = new AtomicLong();
+    private static volatile long firstWriteTime;
+    private final File file;
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS'000+0000 '", Locale.ROOT);
+    private List<Long> timestamps = new ArrayList<>(), pendingTimestamps = new ArrayList<>();
+    private List<String> lines = new ArrayList<>(), pendingLines = new ArrayList<>();
+    private int bufferedBytes;
+    private boolean flushScheduled;
+    private OutputStream outputStream;
+    private long fileSize;
+
+    private LogFileSink(File file) {
+        this.file = file;
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    // Returns the sink for the given file, so lines from several writers (e.g., restarts of a component) are not interleaved.
+    static synchronized LogFileSink of(File file) {
+        LogFileSink sink = sinks.get(file.getAbsolutePath());
+        if (sink == null)
+            sinks.put(file.getAbsolutePath(), sink = new LogFileSink(file));
+        return sink;
+    }
+
+    // Buffers a line for writing, may be called from any thread.
+    void write(long timestamp, String line) {
+        synchronized (this) {
+            timestamps.add(timestamp);
+            lines.add(line);
+            bufferedBytes += line.length();
+            if (bufferedBytes >= LOG_FLUSH_SIZE) {
+                bufferedBytes = 0;
+                executor.execute(this::flush);
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                executor.schedule(this::flush, LOG_FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void flush() {
+        synchronized (this) {
+            // swap buffers, so writers can go on while we are writing
+            List<Long> _timestamps = timestamps;
+            List<String> _lines = lines;
+            timestamps = pendingTimestamps;
+            lines = pendingLines;
+            pendingTimestamps = _timestamps;
+            pendingLines = _lines;
+            bufferedBytes = 0;
+            flushScheduled = false;
+        }
+        if (pendingLines.isEmpty())
+            return;
+
+        StringBuilder sb = new StringBuilder();
+        long now = System.currentTimeMillis(), delay = 0, _maxDelay = 0;
+        int _linesWritten = pendingLines.size();
+        for (int i = 0; i < pendingLines.size(); i++) {
+            sb.append(dateFormat.format(new Date(pendingTimestamps.get(i))))
+                    .append(pendingLines.get(i)).append('\n');
+            delay += now - pendingTimestamps.get(i);
+            _maxDelay = Math.max(_maxDelay, now - pendingTimestamps.get(i));
+        }
+        pendingTimestamps.clear();
+        pendingLines.clear();
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+        try {
+            if (outputStream == null) {
+                //noinspection ResultOfMethodCallIgnored
+                file.getParentFile().mkdirs();
+                outputStream = new FileOutputStream(file, true);
+                fileSize = file.length();
+            }
+            outputStream.write(bytes);
+            fileSize += bytes.length;
+            if (firstWriteTime == 0)
+                firstWriteTime = now;
+            linesWritten.addAndGet(_linesWritten);
+            bytesWritten.addAndGet(bytes.length);
+            flushes.incrementAndGet();
+            totalDelay.addAndGet(delay);
+            maxDelay.accumulateAndGet(_maxDelay, Math::max);
+            if (fileSize >= (long) LOG_ROTATION_SIZE << 20) {
+                outputStream.close();
+                outputStream = null;
+                LogFileManager.rotate(file);
+            }
+        } catch (IOException e) {
+            // do not log with Timber here, as that would only end up in this file again
+            e.printStackTrace();
+            try {
+                if (outputStream != null)
+                    outputStream.close();
+            } catch (IOException ignored) {
+            }
+            outputStream = null;
+        }
+    }
+
+    // Summarizes the output of all sinks: how long lines are buffered before they are written, and how much is written.
+    static Map<String, Long> getMetrics() {
+        Map<String, Long> metrics = new LinkedHashMap<>();
+        long lines = linesWritten.get(), minutes = firstWriteTime == 0 ? 0 :
+                TimeUnit.MILLISECONDS.toMinutes(System.currentTimeMillis() - firstWriteTime) + 1;
+        metrics.put("linesWritten", lines);
+        metrics.put("bytesWritten", bytesWritten.get());
+        metrics.put("bytesPerMinute", minutes > 0 ? bytesWritten.get() / minutes : 0);
+        metrics.put("flushes", flushes.get());
+        metrics.put("averageDelayMs", lines > 0 ? totalDelay.get() / lines : 0);
+        metrics.put("maxDelayMs", maxDelay.get());
+        return metrics;
+    }
+}
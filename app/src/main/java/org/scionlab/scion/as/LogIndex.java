@@ -0,0 +1,618 @@
+/*
+ * Copyright (C) 2019-2020 Vera Clemens, Tom Kranz, Tom Heimbrodt, Elias Kuiter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.scionlab.scion.as;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.StructStat;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import static org.scionlab.scion.as.Config.Logger.*;
+
+/**
+ * Full-text index over all persisted log files, i.e., those of the SCION components and the app.
+ * Every log file is a document of its own with an inverted index from terms (lowercase runs of
+ * letters and digits) to the lines containing them. Lines are located by their byte offset, so
+ * the index does not keep any log text in memory, and when a log file is rotated or deleted, its
+ * document is simply dropped (rotated segments are indexed again once they have been compressed).
+ * The index is updated incrementally on a background thread whenever log files change. Its memory
+ * is limited to INDEX_MEMORY_LIMIT by dropping the documents with the oldest lines, which are then
+ * not searched anymore (dropped files are indexed again only if they are replaced).
+ */
+public class LogIndex {
+    private static final Pattern LOG_FILE_PATTERN = Pattern.compile("^(.+?)(-\\d{4}-\\d{2}-\\d{2}T\\d{2}-\\d{2}-\\d{2}\\.\\d{3})?\\.log(\\.gz)?$");
+    private static final Pattern QUERY_PATTERN = Pattern.compile("\"([^\"]*)\"?|(\\S+)");
+    private static final int TIMESTAMP_LENGTH = "2020-01-01 00:00:00.000000+0000 ".length();
+    private static final int MAX_TERM_LENGTH = 64;
+    private static final int CHUNK_SIZE = 65536;
+    private static LogIndex instance;
+    private final File directory;
+    private final Map<String, Document> documents = new HashMap<>();
+    private final Map<String, Long> evicted = new HashMap<>(); // inodes of files dropped from the index, by name
+    private final Semaphore wakeUp = new Semaphore(0);
+    private long indexedLines, indexedBytes, indexingTime, evictedDocuments, indexingErrors, searchErrors;
+
+    private LogIndex(File directory) {
+        this.directory = directory;
+    }
+
+    // Starts indexing the log files in the given directory (once), and returns the index.
+    static synchronized LogIndex watch(File directory) {
+        if (instance == null) {
+            instance = new LogIndex(directory);
+            //noinspection ResultOfMethodCallIgnored
+            directory.mkdirs();
+            FileWatcher.observingDirectory(directory).watch(instance::wakeUp);
+            Thread thread = new Thread(instance::run, LogIndex.class.getSimpleName());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.start();
+        }
+        return instance;
+    }
+
+    private void wakeUp() {
+        if (wakeUp.availablePermits() == 0)
+            wakeUp.release();
+    }
+
+    private void run() {
+        //noinspection InfiniteLoopStatement
+        while (true) {
+            update();
+            try {
+                // wait a little even when there are changes, so bursts of log lines are indexed together
+                Thread.sleep(INDEX_INTERVAL);
+                //noinspection ResultOfMethodCallIgnored
+                wakeUp.tryAcquire(WATCH_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ignored) {
+            }
+            wakeUp.drainPermits();
+        }
+    }
+
+    // Brings the index up to date with the log directory. Do not log anything here,
+    // as the app's log file is indexed as well, which would keep the index busy forever.
+    private void update() {
+        File[] files = directory.listFiles((dir, name) -> isIndexed(name));
+        Set<String> names = new HashSet<>();
+        if (files != null)
+            for (File file : files)
+                names.add(file.getName());
+
+        synchronized (this) {
+            documents.keySet().retainAll(names);
+            evicted.keySet().retainAll(names);
+        }
+        if (files == null)
+            return;
+
+        for (File file : files) {
+            Document document;
+            synchronized (this) {
+                Long evictedInode = evicted.get(file.getName());
+                if (evictedInode != null && evictedInode == getInode(file))
+                    continue;
+                evicted.remove(file.getName());
+                document = documents.get(file.getName());
+                if (document != null && document.isReplaced()) {
+                    documents.remove(file.getName());
+                    document = null;
+                }
+                if (document == null) {
+                    document = new Document(file);
+                    documents.put(file.getName(), document);
+                }
+            }
+            if (!document.complete) {
+                long start = System.nanoTime();
+                boolean indexed = document.index();
+                synchronized (this) {
+                    indexingTime += System.nanoTime() - start;
+                    if (!indexed) {
+                        indexingErrors++;
+                        // a compressed file is indexed from its start again, so its lines are not indexed twice
+                        if (document.compressed)
+                            documents.remove(file.getName());
+                    }
+                }
+            }
+        }
+        evict();
+    }
+
+    // Drops the documents whose latest lines are the oldest until the index fits into INDEX_MEMORY_LIMIT.
+    private synchronized void evict() {
+        long memory = 0;
+        for (Document document : documents.values())
+            memory += document.memory;
+        while (memory > INDEX_MEMORY_LIMIT && !documents.isEmpty()) {
+            Document oldest = Collections.min(documents.values(),
+                    Comparator.comparingLong(document -> document.lastTimestamp));
+            documents.remove(oldest.file.getName());
+            evicted.put(oldest.file.getName(), oldest.inode);
+            memory -= oldest.memory;
+            evictedDocuments++;
+        }
+    }
+
+    private static long getInode(File file) {
+        try {
+            return Os.stat(file.getPath()).st_ino;
+        } catch (ErrnoException e) {
+            return -1;
+        }
+    }
+
+    private static boolean isIndexed(String name) {
+        Matcher matcher = LOG_FILE_PATTERN.matcher(name);
+        // rotated segments are only indexed once they have been compressed (and will not change anymore)
+        return matcher.matches() && (matcher.group(2) == null) == (matcher.group(3) == null);
+    }
+
+    /**
+     * Returns the most recent log lines (at most limit, in chronological order) that match the
+     * given query and were logged in the given time range (in ms since the epoch, inclusive).
+     * Lines match if they contain all terms of the query, text in double quotes is matched as a
+     * phrase, i.e., its terms have to appear in that exact order.
+     */
+    public List<LogRecord> search(String query, long since, long until, int limit) {
+        List<List<String>> phrases = new ArrayList<>();
+        Set<String> terms = new HashSet<>();
+        Matcher matcher = QUERY_PATTERN.matcher(query);
+        while (matcher.find()) {
+            String phrase = matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+            byte[] bytes = phrase.getBytes(StandardCharsets.UTF_8);
+            List<String> phraseTerms = tokenize(bytes, 0, bytes.length, new ArrayList<>());
+            terms.addAll(phraseTerms);
+            if (phraseTerms.size() > 1)
+                phrases.add(phraseTerms);
+        }
+        if (terms.isEmpty() || limit <= 0)
+            return Collections.emptyList();
+
+        // look up candidate lines with the lock held, but read them from the files without it
+        List<Candidates> candidates = new ArrayList<>();
+        synchronized (this) {
+            for (Document document : documents.values()) {
+                Candidates _candidates = document.lookup(terms, since, until);
+                if (_candidates != null)
+                    candidates.add(_candidates);
+            }
+        }
+
+        List<LogRecord> logRecords = new ArrayList<>();
+        for (Candidates _candidates : candidates) {
+            logRecords.addAll(_candidates.read(phrases, limit));
+            if (_candidates.failed)
+                synchronized (this) {
+                    searchErrors++;
+                }
+        }
+        Collections.sort(logRecords, Comparator.comparingLong(LogRecord::getTimestamp));
+        return new ArrayList<>(logRecords.subList(Math.max(0, logRecords.size() - limit), logRecords.size()));
+    }
+
+    // Size and ingestion overhead of the index, lines and bytes are counted since the app started.
+    public synchronized Map<String, Long> getMetrics() {
+        long lines = 0, terms = 0, postings = 0, memory = 0;
+        for (Document document : documents.values()) {
+            lines += document.lines;
+            terms += document.postings.size();
+            for (Postings _postings : document.postings.values())
+                postings += _postings.count;
+            memory += document.memory;
+        }
+        Map<String, Long> metrics = new LinkedHashMap<>();
+        metrics.put("documents", (long) documents.size());
+        metrics.put("lines", lines);
+        metrics.put("terms", terms);
+        metrics.put("postings", postings);
+        metrics.put("memoryBytes", memory);
+        metrics.put("evictedDocuments", evictedDocuments);
+        metrics.put("indexedLines", indexedLines);
+        metrics.put("indexedBytes", indexedBytes);
+        metrics.put("indexingTimeMs", TimeUnit.NANOSECONDS.toMillis(indexingTime));
+        metrics.put("indexingErrors", indexingErrors);
+        metrics.put("searchErrors", searchErrors);
+        return metrics;
+    }
+
+    // Splits text into lowercase runs of ASCII letters and digits (all other UTF-8 bytes
+    // are kept within terms), so queries and log lines are guaranteed to be split alike.
+    private static List<String> tokenize(byte[] buffer, int start, int end, List<String> terms) {
+        terms.clear();
+        byte[] term = new byte[MAX_TERM_LENGTH];
+        int length = 0;
+        for (int i = start; i <= end; i++) {
+            byte b = i < end ? buffer[i] : (byte) ' ';
+            if (b < 0 || (b >= '0' && b <= '9') || (b >= 'a' && b <= 'z')) {
+                if (length < MAX_TERM_LENGTH)
+                    term[length] = b;
+                length++;
+            } else if (b >= 'A' && b <= 'Z') {
+                if (length < MAX_TERM_LENGTH)
+                    term[length] = (byte) (b - 'A' + 'a');
+                length++;
+            } else if (length > 0) {
+                // overly long terms (e.g., hashes or encoded data) are not worth indexing
+                if (length <= MAX_TERM_LENGTH)
+                    terms.add(new String(term, 0, length, StandardCharsets.UTF_8));
+                length = 0;
+            }
+        }
+        return terms;
+    }
+
+    // Parses the timestamp SCION components prefix lines with, returns -1 if there is none.
+    static long parseTimestamp(byte[] buffer, int start, int end) {
+        if (end - start < TIMESTAMP_LENGTH || buffer[start + 4] != '-' || buffer[start + 7] != '-' ||
+                buffer[start + 10] != ' ' || buffer[start + 13] != ':' || buffer[start + 16] != ':' ||
+                buffer[start + 19] != '.' || buffer[start + TIMESTAMP_LENGTH - 1] != ' ')
+            return -1;
+        int year = parseDigits(buffer, start, 4), month = parseDigits(buffer, start + 5, 2),
+                day = parseDigits(buffer, start + 8, 2), hour = parseDigits(buffer, start + 11, 2),
+                minute = parseDigits(buffer, start + 14, 2), second = parseDigits(buffer, start + 17, 2),
+                micros = parseDigits(buffer, start + 20, 6), zoneHours = parseDigits(buffer, start + 27, 2),
+                zoneMinutes = parseDigits(buffer, start + 29, 2);
+        byte zoneSign = buffer[start + 26];
+        if (year < 0 || month < 1 || month > 12 || day < 1 || hour < 0 || minute < 0 || second < 0 ||
+                micros < 0 || zoneHours < 0 || zoneMinutes < 0 || (zoneSign != '+' && zoneSign != '-'))
+            return -1;
+
+        // days since the epoch of the given date in the proleptic Gregorian calendar
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400, yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long days = era * 146097L + yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear - 719468;
+        long zoneOffset = (zoneSign == '+' ? 1 : -1) * (zoneHours * 60L + zoneMinutes);
+        return (((days * 24 + hour) * 60 + minute - zoneOffset) * 60 + second) * 1000 + micros / 1000;
+    }
+
+    private static int parseDigits(byte[] buffer, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            if (buffer[i] < '0' || buffer[i] > '9')
+                return -1;
+            value = value * 10 + buffer[i] - '0';
+        }
+        return value;
+    }
+
+    /**
+     * Sorted line numbers of a term within a document, delta- and varint-encoded
+     * (most deltas fit into a single byte, so this takes far less memory than an int[]).
+     */
+    private static class Postings {
+        private byte[] data = new byte[4];
+        private int size, count, lastLine = -1;
+
+        void add(int line) {
+            if (line == lastLine)
+                return;
+            if (size + 5 > data.length)
+                data = Arrays.copyOf(data, data.length * 2);
+            int delta = line - lastLine;
+            while (delta >= 0x80) {
+                data[size++] = (byte) (delta | 0x80);
+                delta >>>= 7;
+            }
+            data[size++] = (byte) delta;
+            lastLine = line;
+            count++;
+        }
+
+        int[] decode() {
+            int[] lines = new int[count];
+            int line = -1;
+            for (int i = 0, j = 0; j < count; j++) {
+                int delta = 0;
+                for (int shift = 0; ; shift += 7) {
+                    byte b = data[i++];
+                    delta |= (b & 0x7f) << shift;
+                    if (b >= 0)
+                        break;
+                }
+                lines[j] = line += delta;
+            }
+            return lines;
+        }
+    }
+
+    private class Document {
+        private final File file;
+        private final String tag;
+        private final boolean compressed;
+        private long inode = -1;
+        private long position; // offset (in the uncompressed file) after the last indexed line
+        private boolean complete; // whether a compressed file has been indexed completely
+        private final Map<String, Postings> postings = new HashMap<>();
+        private int[] offsets = new int[64];
+        private long[] timestamps = new long[64];
+        private int lines;
+        private long lastTimestamp;
+        // rough estimate of the memory taken by the postings (term strings, hash map entries and postings arrays)
+        // and the offsets and timestamps, maintained while indexing, as summing it up on demand would be slow
+        private long memory = 12L * 64;
+        private final List<String> terms = new ArrayList<>();
+
+        Document(File file) {
+            this.file = file;
+            Matcher matcher = LOG_FILE_PATTERN.matcher(file.getName());
+            boolean matches = matcher.matches();
+            tag = matches ? matcher.group(1) : file.getName();
+            compressed = matches && matcher.group(3) != null;
+        }
+
+        // whether the indexed file has been rotated or truncated (e.g., when its component restarted)
+        boolean isReplaced() {
+            if (compressed || inode < 0)
+                return false;
+            try {
+                StructStat stat = Os.stat(file.getPath());
+                return stat.st_ino != inode || stat.st_size < position;
+            } catch (ErrnoException e) {
+                return true;
+            }
+        }
+
+        // Indexes all lines that have been appended since the last call, returns whether the file could be read.
+        // (Errors are only counted, as the index also indexes the app's own log, so logging them might loop.)
+        boolean index() {
+            try (FileInputStream fileInputStream = new FileInputStream(file);
+                 InputStream inputStream = compressed ? new GZIPInputStream(fileInputStream, CHUNK_SIZE) : fileInputStream) {
+                if (inode < 0)
+                    inode = Os.fstat(fileInputStream.getFD()).st_ino;
+                if (!compressed)
+                    fileInputStream.getChannel().position(position);
+
+                byte[] buffer = new byte[CHUNK_SIZE];
+                int buffered = 0;
+                while (true) {
+                    if (buffered == buffer.length)
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    int read = inputStream.read(buffer, buffered, buffer.length - buffered);
+                    if (read < 0)
+                        break;
+                    int lineStart = 0;
+                    synchronized (LogIndex.this) {
+                        for (int i = buffered; i < buffered + read; i++)
+                            if (buffer[i] == '\n') {
+                                indexLine(buffer, lineStart, i);
+                                lineStart = i + 1;
+                            }
+                    }
+                    buffered += read - lineStart;
+                    System.arraycopy(buffer, lineStart, buffer, 0, buffered);
+                }
+                // a live file's incomplete last line is indexed once it is complete
+                if (compressed && buffered > 0)
+                    synchronized (LogIndex.this) {
+                        indexLine(buffer, 0, buffered);
+                    }
+            } catch (IOException | ErrnoException e) {
+                return false;
+            }
+            complete = compressed;
+            return true;
+        }
+
+        private void indexLine(byte[] buffer, int start, int end) {
+            int length = end - start + 1;
+            if (end > start && buffer[end - 1] == '\r')
+                end--;
+            long timestamp = parseTimestamp(buffer, start, end);
+            if (timestamp >= 0)
+                lastTimestamp = timestamp;
+            // lines without timestamp (e.g., stack traces) belong to the preceding line
+
+            if (lines == offsets.length) {
+                offsets = Arrays.copyOf(offsets, lines * 2);
+                timestamps = Arrays.copyOf(timestamps, lines * 2);
+                memory += 12L * lines;
+            }
+            offsets[lines] = (int) position;
+            timestamps[lines] = lastTimestamp;
+            for (String term : tokenize(buffer, timestamp >= 0 ? start + TIMESTAMP_LENGTH : start, end, terms)) {
+                Postings _postings = postings.get(term);
+                if (_postings == null) {
+                    postings.put(term, _postings = new Postings());
+                    memory += 2 * term.length() + 80 + _postings.data.length;
+                }
+                int size = _postings.data.length;
+                _postings.add(lines);
+                memory += _postings.data.length - size;
+            }
+            lines++;
+            position += length;
+            indexedLines++;
+            indexedBytes += length;
+        }
+
+        // Returns the lines that contain all the given terms and lie in the given time range, if any.
+        Candidates lookup(Set<String> terms, long since, long until) {
+            if (lines == 0 || timestamps[lines - 1] < since || timestamps[0] > until)
+                return null;
+            List<Postings> _postings = new ArrayList<>();
+            for (String term : terms) {
+                Postings __postings = postings.get(term);
+                if (__postings == null)
+                    return null;
+                _postings.add(__postings);
+            }
+            // intersect starting with the rarest term, which keeps the intermediate results small
+            Collections.sort(_postings, Comparator.comparingInt(__postings -> __postings.count));
+            int[] candidates = _postings.get(0).decode();
+            int count = candidates.length;
+            for (int i = 1; i < _postings.size() && count > 0; i++) {
+                int[] other = _postings.get(i).decode();
+                int _count = 0;
+                for (int j = 0, k = 0; j < count && k < other.length; )
+                    if (candidates[j] < other[k])
+                        j++;
+                    else if (candidates[j] > other[k])
+                        k++;
+                    else {
+                        candidates[_count++] = candidates[j];
+                        j++;
+                        k++;
+                    }
+                count = _count;
+            }
+
+            int _count = 0;
+            for (int i = 0; i < count; i++)
+                if (timestamps[candidates[i]] >= since && timestamps[candidates[i]] <= until)
+                    candidates[_count++] = candidates[i];
+            if (_count == 0)
+                return null;
+            long[] _offsets = new long[_count], _timestamps = new long[_count];
+            for (int i = 0; i < _count; i++) {
+                _offsets[i] = offsets[candidates[i]];
+                _timestamps[i] = timestamps[candidates[i]];
+            }
+            return new Candidates(file, tag, compressed, _offsets, _timestamps);
+        }
+    }
+
+    // Lines of a document that (probably) match a query, read without holding the index lock.
+    private static class Candidates {
+        private final File file;
+        private final String tag;
+        private final boolean compressed;
+        private final long[] offsets, timestamps;
+        private boolean failed; // whether reading the file failed
+
+        Candidates(File file, String tag, boolean compressed, long[] offsets, long[] timestamps) {
+            this.file = file;
+            this.tag = tag;
+            this.compressed = compressed;
+            this.offsets = offsets;
+            this.timestamps = timestamps;
+        }
+
+        // Reads the candidate lines and returns (at most limit of) the latest ones containing all given phrases.
+        List<LogRecord> read(List<List<String>> phrases, int limit) {
+            List<LogRecord> logRecords = new ArrayList<>();
+            List<String> terms = new ArrayList<>();
+            try {
+                if (compressed) {
+                    // compressed files can only be read sequentially, so read all candidates
+                    try (InputStream inputStream = new BufferedInputStream(
+                            new GZIPInputStream(new FileInputStream(file), CHUNK_SIZE), CHUNK_SIZE)) {
+                        long position = 0;
+                        for (int i = 0; i < offsets.length; i++) {
+                            for (long skipped; position < offsets[i]; position += skipped)
+                                if ((skipped = inputStream.skip(offsets[i] - position)) <= 0)
+                                    return logRecords;
+                            byte[] line = readLine(inputStream);
+                            position += line.length + 1;
+                            LogRecord logRecord = toLogRecord(line, timestamps[i], phrases, terms);
+                            if (logRecord != null)
+                                logRecords.add(logRecord);
+                        }
+                    }
+                    return logRecords.subList(Math.max(0, logRecords.size() - limit), logRecords.size());
+                }
+
+                try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+                    for (int i = offsets.length - 1; i >= 0 && logRecords.size() < limit; i--) {
+                        randomAccessFile.seek(offsets[i]);
+                        LogRecord logRecord = toLogRecord(readLine(new RandomAccessInputStream(randomAccessFile)),
+                                timestamps[i], phrases, terms);
+                        if (logRecord != null)
+                            logRecords.add(logRecord);
+                    }
+                }
+            } catch (IOException e) {
+                // the file has been rotated or deleted in the meantime, the lines read so far are returned
+                failed = true;
+            }
+            return logRecords;
+        }
+
+        private LogRecord toLogRecord(byte[] line, long timestamp, List<List<String>> phrases, List<String> terms) {
+            int start = parseTimestamp(line, 0, line.length) >= 0 ? TIMESTAMP_LENGTH : 0;
+            int end = line.length > start && line[line.length - 1] == '\r' ? line.length - 1 : line.length;
+            if (!phrases.isEmpty()) {
+                tokenize(line, start, end, terms);
+                for (List<String> phrase : phrases)
+                    if (Collections.indexOfSubList(terms, phrase) < 0)
+                        return null;
+            }
+            String message = new String(line, start, end - start, StandardCharsets.UTF_8);
+            Logger.LogLevel logLevel = Logger.LogLevel.fromMessage(message);
+            return new LogRecord(timestamp, logLevel != null ? logLevel : DEFAULT_LINE_LOG_LEVEL, tag, message);
+        }
+
+        private static byte[] readLine(InputStream inputStream) throws IOException {
+            byte[] line = new byte[256];
+            int length = 0;
+            for (int b = inputStream.read(); b >= 0 && b != '\n'; b = inputStream.read()) {
+                if (length == line.length)
+                    line = Arrays.copyOf(line, length * 2);
+                line[length++] = (byte) b;
+            }
+            return Arrays.copyOf(line, length);
+        }
+    }
+
+    // Buffered sequential reads from the current position of a random access file.
+    private static class RandomAccessInputStream extends InputStream {
+        private final RandomAccessFile randomAccessFile;
+        private final byte[] buffer = new byte[4096];
+        private int position, length;
+
+        RandomAccessInputStream(RandomAccessFile randomAccessFile) {
+            this.randomAccessFile = randomAccessFile;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position == length) {
+                length = randomAccessFile.read(buffer);
+                position = 0;
+                if (length <= 0)
+                    return -1;
+            }
+            return buffer[position++] & 0xff;
+        }
+    }
+}
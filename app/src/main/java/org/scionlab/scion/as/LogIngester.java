@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2019-2020 Vera Clemens, Tom Kranz, Tom Heimbrodt, Elias Kuiter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.scionlab.scion.as;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructPollfd;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import timber.log.Timber;
+
+import static org.scionlab.scion.as.Config.Logger.*;
+
+/**
+ * Reads all log files and process streams of all components on a single thread.
+ * The thread waits in poll() on the pipes of all process streams (see pipe()) and on a pipe that
+ * other threads write to when they wake it up (see wakeUp()), such as the file watchers of log
+ * files, which use inotify (see FileWatcher). So the thread only wakes up when there is new input,
+ * and lines are split and matched on this thread only, however many components there are.
+ * Lines are handed to their readers' consumers (i.e., Timber and the log store) on this thread, which
+ * only do cheap, in-memory work. Callbacks of watched patterns (e.g., setting a component ready) may
+ * do more, so they are run on a separate thread, and do not delay the output of other components.
+ * How long reading and callbacks take is measured (see getMetrics()).
+ */
+class LogIngester {
+    private static final CopyOnWriteArrayList<Logger.LogReader> logReaders = new CopyOnWriteArrayList<>();
+    private static final FileDescriptor[] wakeUpPipe = createWakeUpPipe();
+    private static final AtomicBoolean wakeUpPending = new AtomicBoolean();
+    private static final ExecutorService callbackExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, LogIngester.class.getSimpleName() + ".callbacks");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final AtomicLong wakeUps = new AtomicLong(), totalReadTime = new AtomicLong(),
+            maxReadTime = new AtomicLong(), callbacks = new AtomicLong(), totalCallbackTime = new AtomicLong(),
+            maxCallbackTime = new AtomicLong(); // times in µs
+    private static Thread thread;
+
+    static synchronized void add(Logger.LogReader logReader) {
+        logReaders.add(logReader);
+        if (thread == null) {
+            thread = new Thread(LogIngester::run, LogIngester.class.getSimpleName());
+            thread.setDaemon(true);
+            thread.start();
+        }
+        wakeUp();
+    }
+
+    private static FileDescriptor[] createWakeUpPipe() {
+        try {
+            return Os.pipe();
+        } catch (ErrnoException e) {
+            // the thread then only wakes up for process output and after WATCH_TIMEOUT
+            Timber.e(e);
+            return null;
+        }
+    }
+
+    // Signals that there is (possibly) new input, may be called from any thread.
+    static void wakeUp() {
+        // coalesce multiple signals into a single byte in the pipe
+        if (wakeUpPipe == null || !wakeUpPending.compareAndSet(false, true))
+            return;
+        try {
+            Os.write(wakeUpPipe[1], new byte[1], 0, 1);
+        } catch (ErrnoException | InterruptedIOException e) {
+            wakeUpPending.set(false);
+        }
+    }
+
+    // Runs the callback of a watched pattern on the callback thread, in the order the patterns matched.
+    static void runCallback(Runnable callback) {
+        callbackExecutor.execute(() -> {
+            long start = System.nanoTime();
+            callback.run();
+            long time = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+            callbacks.incrementAndGet();
+            totalCallbackTime.addAndGet(time);
+            updateMax(maxCallbackTime, time);
+        });
+    }
+
+    private static void run() {
+        //noinspection InfiniteLoopStatement
+        while (true) {
+            long start = System.nanoTime();
+            for (Logger.LogReader logReader : logReaders)
+                if (!logReader.read())
+                    logReaders.remove(logReader);
+            long time = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+            wakeUps.incrementAndGet();
+            totalReadTime.addAndGet(time);
+            updateMax(maxReadTime, time);
+            poll();
+        }
+    }
+
+    // Waits until a process stream has new input or the thread is woken up. The timeout only guards
+    // against file systems that do not support inotify.
+    private static void poll() {
+        List<StructPollfd> pollfds = new ArrayList<>();
+        if (wakeUpPipe != null)
+            pollfds.add(pollfd(wakeUpPipe[0]));
+        for (Logger.LogReader logReader : logReaders) {
+            FileDescriptor fd = logReader.getPipe();
+            if (fd != null)
+                pollfds.add(pollfd(fd));
+        }
+        try {
+            Os.poll(pollfds.toArray(new StructPollfd[0]), (int) WATCH_TIMEOUT);
+        } catch (ErrnoException ignored) {
+            // interrupted by a signal, all readers are read anyway
+        }
+        // the byte is consumed before reading, so wakeups during reading are not lost
+        if (wakeUpPipe != null && wakeUpPending.getAndSet(false)) {
+            try {
+                //noinspection ResultOfMethodCallIgnored
+                Os.read(wakeUpPipe[0], new byte[1], 0, 1);
+            } catch (ErrnoException | InterruptedIOException ignored) {
+            }
+        }
+    }
+
+    private static StructPollfd pollfd(FileDescriptor fd) {
+        StructPollfd pollfd = new StructPollfd();
+        pollfd.fd = fd;
+        pollfd.events = (short) OsConstants.POLLIN;
+        return pollfd;
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        for (long _max = max.get(); value > _max && !max.compareAndSet(_max, value); _max = max.get())
+            ;
+    }
+
+    // Summarizes how often the thread woke up, and how long reading input and running callbacks took.
+    static Map<String, Long> getMetrics() {
+        Map<String, Long> metrics = new LinkedHashMap<>();
+        long _wakeUps = wakeUps.get(), _callbacks = callbacks.get();
+        metrics.put("wakeUps", _wakeUps);
+        metrics.put("averageReadUs", _wakeUps > 0 ? totalReadTime.get() / _wakeUps : 0);
+        metrics.put("maxReadUs", maxReadTime.get());
+        metrics.put("callbacks", _callbacks);
+        metrics.put("averageCallbackUs", _callbacks > 0 ? totalCallbackTime.get() / _callbacks : 0);
+        metrics.put("maxCallbackUs", maxCallbackTime.get());
+        return metrics;
+    }
+
+    // Returns a stream that reads the pipe of the given process stream without blocking, the pipe is then
+    // polled by the ingester thread (see Logger.LogReader.getPipe()).
+    static PipeInputStream pipe(InputStream inputStream) {
+        return new PipeInputStream(inputStream);
+    }
+
+    /**
+     * Reads a process stream without blocking: available() polls its pipe, and read(byte[], int, int)
+     * returns 0 if nothing has arrived (and -1 at the end of the stream). At the end of the stream, available()
+     * returns 1, so the end is noticed by reading.
+     * Process streams buffer a stream of the pipe (both on Android and OpenJDK), whose file descriptor is read
+     * directly. When the process exits, the process stream drains the pipe into memory and replaces the pipe's
+     * stream, so the process stream is read from then on. As draining is synchronized on the process stream,
+     * so are reads, and lines stay in order. If the pipe cannot be found, the process stream is read as long as it
+     * has input available, and its end is only noticed when its reader gives up (see Logger.LogReader.finish()).
+     */
+    static class PipeInputStream extends InputStream {
+        private static final Field IN = getInField();
+        private final InputStream inputStream;
+        private FilterInputStream holder; // the stream that wraps the pipe's stream
+        private InputStream pipeStream;
+        private FileDescriptor fd;
+
+        private PipeInputStream(InputStream inputStream) {
+            this.inputStream = inputStream;
+            try {
+                pipeStream = inputStream;
+                while (IN != null && pipeStream instanceof FilterInputStream) {
+                    holder = (FilterInputStream) pipeStream;
+                    pipeStream = (InputStream) IN.get(holder);
+                }
+                if (pipeStream instanceof FileInputStream)
+                    fd = ((FileInputStream) pipeStream).getFD();
+            } catch (IllegalAccessException | IOException e) {
+                Timber.w("could not find pipe of process stream: %s", e);
+            }
+        }
+
+        private static Field getInField() {
+            try {
+                Field in = FilterInputStream.class.getDeclaredField("in");
+                in.setAccessible(true);
+                return in;
+            } catch (NoSuchFieldException e) {
+                return null;
+            }
+        }
+
+        // The pipe to poll for input, or null if it is unknown or has been drained already.
+        FileDescriptor getFD() {
+            return isDrained() ? null : fd;
+        }
+
+        private boolean isDrained() {
+            try {
+                return fd == null || !fd.valid() || holder != null && IN.get(holder) != pipeStream;
+            } catch (IllegalAccessException e) {
+                return true;
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            synchronized (inputStream) {
+                if (isDrained()) {
+                    int available = inputStream.available();
+                    return available > 0 || fd == null ? available : 1;
+                }
+                return poll(0) ? 1 : 0;
+            }
+        }
+
+        // Whether the pipe has input or has been closed by its writer (the end of the stream) within the timeout.
+        private boolean poll(int timeout) throws IOException {
+            StructPollfd pollfd = pollfd(fd);
+            try {
+                Os.poll(new StructPollfd[]{pollfd}, timeout);
+            } catch (ErrnoException e) {
+                throw new IOException(e);
+            }
+            return pollfd.revents != 0;
+        }
+
+        @Override
+        public int read(byte[] b, int offset, int length) throws IOException {
+            synchronized (inputStream) {
+                if (available() == 0)
+                    return 0;
+                if (isDrained())
+                    return inputStream.read(b, offset, length);
+                try {
+                    int read = Os.read(fd, b, offset, length);
+                    return read > 0 ? read : -1;
+                } catch (ErrnoException e) {
+                    throw new IOException(e);
+                }
+            }
+        }
+
+        // Unlike read(byte[], int, int), this blocks until input is available, as it cannot return 0.
+        @Override
+        public int read() throws IOException {
+            if (fd == null)
+                return inputStream.read();
+            byte[] b = new byte[1];
+            int read;
+            while ((read = read(b, 0, 1)) == 0)
+                if (!isDrained())
+                    poll((int) WATCH_TIMEOUT);
+            return read < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public void close() throws IOException {
+            inputStream.close();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2019-2020 Vera Clemens, Tom Kranz, Tom Heimbrodt, Elias Kuiter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.scionlab.scion.as;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A single log line as returned by LogStore queries.
+ * Key/value fields (such as addr="...") are extracted from the message on first access.
+ */
+public class LogRecord {
+    private static final Pattern FIELD_PATTERN = Pattern.compile("(\\w+)=(\"(?:[^\"\\\\]|\\\\.)*\"|\\S+)");
+    private final long timestamp;
+    private final Logger.LogLevel level;
+    private final String tag;
+    private final String message;
+    private Map<String, String> fields;
+
+    LogRecord(long timestamp, Logger.LogLevel level, String tag, String message) {
+        this.timestamp = timestamp;
+        this.level = level;
+        this.tag = tag;
+        this.message = message;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public Logger.LogLevel getLevel() {
+        return level;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public Map<String, String> getFields() {
+        if (fields == null) {
+            fields = new LinkedHashMap<>();
+            Matcher m = FIELD_PATTERN.matcher(message);
+            while (m.find()) {
+                String value = m.group(2);
+                if (value.startsWith("\""))
+                    value = value.substring(1, value.length() - 1).replace("\\\"", "\"");
+                fields.put(m.group(1), value);
+            }
+        }
+        return fields;
+    }
+
+    @Override
+    public String toString() {
+        return tag + ": " + message;
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2019-2020 Vera Clemens, Tom Kranz, Tom Heimbrodt, Elias Kuiter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.scionlab.scion.as;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * Keeps the most recent log lines as structured records in fixed-capacity columns.
+ * Messages are stored UTF-8 encoded in a ring of bytes, while timestamp, level and tag of each
+ * line live in primitive columns next to it. The oldest lines are evicted as soon as either the
+ * byte or the line budget is exhausted, so memory usage stays constant no matter how long SCION
+ * has been running. Per-tag and per-level indexes allow filtering without rescanning any text.
+ */
+public class LogStore {
+    private final byte[] data;
+    private final int[] lineStarts, lineLengths;
+    private final long[] timestamps;
+    // SCION output is stored with the time it was logged at by its process, which may be slightly out of order
+    // across processes, so time ranges are searched by the latest timestamp up to each line (never decreasing)
+    private final long[] latestTimestamps;
+    private long latestTimestamp = Long.MIN_VALUE;
+    private final byte[] levels;
+    private final short[] tagIds;
+    private final ArrayList<String> tags = new ArrayList<>();
+    private final HashMap<String, Short> tagIdsByName = new HashMap<>();
+    private final ArrayList<SequenceList> tagIndex = new ArrayList<>();
+    private final SequenceList[] levelIndex = new SequenceList[Logger.LogLevel.values().length];
+    private int firstLine, lineCount, writePosition, usedBytes;
+    private long endSequence; // number of lines ever appended, lines are identified by their sequence number
+    private volatile BiConsumer<String, String> listener;
+
+    // Sorted sequence numbers of all stored lines with a given tag or level. As lines are evicted
+    // in the order they were appended, evicting a line always removes the first entry.
+    private static class SequenceList {
+        private final int maximumCapacity;
+        private long[] sequences = new long[16];
+        private int first, size;
+
+        SequenceList(int maximumCapacity) {
+            this.maximumCapacity = maximumCapacity;
+        }
+
+        void add(long sequence) {
+            if (size == sequences.length) {
+                long[] grown = new long[Math.min(sequences.length * 2, maximumCapacity)];
+                for (int i = 0; i < size; i++)
+                    grown[i] = get(i);
+                sequences = grown;
+                first = 0;
+            }
+            sequences[(first + size++) % sequences.length] = sequence;
+        }
+
+        void removeFirst() {
+            first = (first + 1) % sequences.length;
+            size--;
+        }
+
+        long get(int index) {
+            return sequences[(first + index) % sequences.length];
+        }
+
+        // index of the first sequence number that is not smaller than the given one
+        int search(long sequence) {
+            int low = 0, high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (get(mid) < sequence)
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+            return low;
+        }
+    }
+
+    public LogStore(int byteCapacity, int lineCapacity) {
+        data = new byte[byteCapacity];
+        lineStarts = new int[lineCapacity];
+        lineLengths = new int[lineCapacity];
+        timestamps = new long[lineCapacity];
+        latestTimestamps = new long[lineCapacity];
+        levels = new byte[lineCapacity];
+        tagIds = new short[lineCapacity];
+        for (int i = 0; i < levelIndex.length; i++)
+            levelIndex[i] = new SequenceList(lineCapacity);
+    }
+
+    // The listener is notified (outside of any lock) about every appended line.
+    public void setListener(BiConsumer<String, String> listener) {
+        this.listener = listener;
+    }
+
+    public void append(long timestamp, Logger.LogLevel level, String tag, String message) {
+        synchronized (this) {
+            int length = encodedLength(message);
+            if (length > data.length) {
+                // a single line never exceeds the whole budget
+                append(timestamp, level, tag, message.substring(0, Math.max(0, message.length() - (length - data.length))));
+                return;
+            }
+
+            while (lineCount == lineStarts.length || data.length - usedBytes < length)
+                evict();
+
+            short tagId = getTagId(tag);
+            int line = (firstLine + lineCount) % lineStarts.length;
+            lineStarts[line] = writePosition;
+            lineLengths[line] = length;
+            timestamps[line] = timestamp;
+            latestTimestamps[line] = latestTimestamp = Math.max(latestTimestamp, timestamp);
+            levels[line] = (byte) level.getValue();
+            tagIds[line] = tagId;
+            tagIndex.get(tagId).add(endSequence);
+            levelIndex[level.getValue()].add(endSequence);
+            lineCount++;
+            endSequence++;
+            usedBytes += length;
+            encode(message);
+        }
+
+        BiConsumer<String, String> listener = this.listener;
+        if (listener != null)
+            listener.accept(tag, message);
+    }
+
+    public synchronized int size() {
+        return lineCount;
+    }
+
+    // Returns the line at the given index formatted as "tag: message", where 0 is the oldest line still stored.
+    public synchronized String get(int index) {
+        int line = getLine(index);
+        return tags.get(tagIds[line]) + ": " + decode(lineStarts[line], lineLengths[line]);
+    }
+
+    public synchronized LogRecord getRecord(int index) {
+        int line = getLine(index);
+        return new LogRecord(timestamps[line], Logger.LogLevel.fromValue(levels[line]),
+                tags.get(tagIds[line]), decode(lineStarts[line], lineLengths[line]));
+    }
+
+    // Sequence number of the oldest line still stored.
+    public synchronized long getFirstSequence() {
+        return endSequence - lineCount;
+    }
+
+    // Sequence number the next appended line will receive.
+    public synchronized long getEndSequence() {
+        return endSequence;
+    }
+
+    // Returns the line with the given sequence number, or null if it has already been evicted.
+    public synchronized String getBySequence(long sequence) {
+        long index = sequence - getFirstSequence();
+        return index >= 0 && index < lineCount ? get((int) index) : null;
+    }
+
+    // Returns all stored records with at least the given level (and the given tag, unless null)
+    // that were logged in the given time range (inclusive, in ms since the epoch).
+    public synchronized List<LogRecord> query(Logger.LogLevel minimumLevel, String tag, long since, long until) {
+        ArrayList<LogRecord> records = new ArrayList<>();
+        long firstSequence = getFirstSequence() + searchTimestamp(since);
+        long[] sequences;
+
+        if (tag != null) {
+            Short tagId = tagIdsByName.get(tag);
+            if (tagId == null)
+                return records;
+            sequences = collect(tagIndex.get(tagId), firstSequence);
+        } else {
+            // merge the indexes of all requested levels
+            int count = 0;
+            long[][] levelSequences = new long[levelIndex.length][];
+            for (int level = minimumLevel.getValue(); level < levelIndex.length; level++)
+                count += (levelSequences[level] = collect(levelIndex[level], firstSequence)).length;
+            sequences = new long[count];
+            count = 0;
+            for (long[] s : levelSequences)
+                if (s != null) {
+                    System.arraycopy(s, 0, sequences, count, s.length);
+                    count += s.length;
+                }
+            Arrays.sort(sequences);
+        }
+
+        for (long sequence : sequences) {
+            int index = (int) (sequence - getFirstSequence());
+            int line = getLine(index);
+            // lines may be out of order, so later lines might still be in the time range
+            if (timestamps[line] >= since && timestamps[line] <= until && levels[line] >= minimumLevel.getValue())
+                records.add(getRecord(index));
+        }
+        return records;
+    }
+
+    public synchronized void clear() {
+        while (lineCount > 0)
+            evict();
+        writePosition = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder(usedBytes + lineCount);
+        for (int i = 0; i < lineCount; i++)
+            sb.append(get(i)).append('\n');
+        return sb.toString();
+    }
+
+    private int getLine(int index) {
+        if (index < 0 || index >= lineCount)
+            throw new IndexOutOfBoundsException("no log line with index " + index);
+        return (firstLine + index) % lineStarts.length;
+    }
+
+    private short getTagId(String tag) {
+        Short tagId = tagIdsByName.get(tag);
+        if (tagId == null) {
+            tagId = (short) tags.size();
+            tags.add(tag);
+            tagIdsByName.put(tag, tagId);
+            tagIndex.add(new SequenceList(lineStarts.length));
+        }
+        return tagId;
+    }
+
+    // index of the first stored line that may have been logged at or after the given timestamp
+    // (all lines before it were logged earlier)
+    private int searchTimestamp(long timestamp) {
+        int low = 0, high = lineCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (latestTimestamps[(firstLine + mid) % lineStarts.length] < timestamp)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    private static long[] collect(SequenceList sequenceList, long firstSequence) {
+        int from = sequenceList.search(firstSequence);
+        long[] sequences = new long[sequenceList.size - from];
+        for (int i = 0; i < sequences.length; i++)
+            sequences[i] = sequenceList.get(from + i);
+        return sequences;
+    }
+
+    private void evict() {
+        tagIndex.get(tagIds[firstLine]).removeFirst();
+        levelIndex[levels[firstLine]].removeFirst();
+        usedBytes -= lineLengths[firstLine];
+        firstLine = (firstLine + 1) % lineStarts.length;
+        lineCount--;
+    }
+
+    private String decode(int start, int length) {
+        if (start + length <= data.length)
+            return new String(data, start, length, StandardCharsets.UTF_8);
+        byte[] bytes = new byte[length];
+        int head = data.length - start;
+        System.arraycopy(data, start, bytes, 0, head);
+        System.arraycopy(data, 0, bytes, head, length - head);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void put(byte b) {
+        data[writePosition] = b;
+        writePosition = writePosition + 1 == data.length ? 0 : writePosition + 1;
+    }
+
+    // UTF-8 encoding directly into the ring, so appending a line does not allocate
+    private void encode(String s) {
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80)
+                put((byte) c);
+            else if (c < 0x800) {
+                put((byte) (0xC0 | (c >> 6)));
+                put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                put((byte) (0xF0 | (cp >> 18)));
+                put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                put((byte) (0x80 | (cp & 0x3F)));
+            } else if (Character.isSurrogate(c))
+                put((byte) '?');
+            else {
+                put((byte) (0xE0 | (c >> 12)));
+                put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    private static int encodedLength(String s) {
+        int length = 0;
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80 || (Character.isSurrogate(c) &&
+                    !(Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1)))))
+                length += 1;
+            else if (c < 0x800)
+                length += 2;
+            else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else
+                length += 3;
+        }
+        return length;
+    }
+}
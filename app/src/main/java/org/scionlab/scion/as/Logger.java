@@ -17,73 +17,261 @@
 
 package org.scionlab.scion.as;
 
+import android.system.ErrnoException;
+import android.system.Os;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 
 import org.scionlab.scion.UncaughtExceptionHandler;
 
-import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.InterruptedIOException;
-import java.util.HashMap;
-import java.util.function.BiConsumer;
-import java.util.function.Consumer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Stream;
 
 import timber.log.Timber;
 
 import static org.scionlab.scion.as.Config.Logger.*;
 
 public class Logger {
-    static class LogThread extends Thread {
-        private Consumer<String> outputConsumer;
-        private HashMap<Pattern, Runnable> watchPatterns = new HashMap<>();
-        private Pattern deletePattern;
-        private long interval;
-        InputStream inputStream;
-
-        LogThread(Consumer<String> outputConsumer, Pattern deletePattern, long interval,
-                  org.scionlab.scion.UncaughtExceptionHandler uncaughtExceptionHandler) {
+    private static volatile LogFileSink appLogSink;
+    // time at which the SCION output line currently passed to Timber was logged, -1 if unknown (see logLine())
+    @SuppressWarnings("AnonymousHasLambdaAlternative") // ThreadLocal.withInitial requires API level 26
+    private static final ThreadLocal<long[]> lineTimestamp = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[]{-1};
+        }
+    };
+
+    /**
+     * Splits a log file or process stream into lines, which are checked against the watched
+     * patterns and passed on to the output consumer, along with the time they were logged at
+     * (parsed from the line, or the current time for lines without a timestamp). Readers do not
+     * own a thread, they are all read from the single LogIngester thread whenever new input arrived.
+     */
+    static class LogReader {
+        private static final int BUFFER_SIZE = 8192;
+        private ObjLongConsumer<String> outputConsumer;
+        private LineMatcher lineMatcher = new LineMatcher();
+        private Supplier<LogLevel> logLevel;
+        private boolean dropping;
+        private Matcher deleteMatcher;
+        private UncaughtExceptionHandler uncaughtExceptionHandler;
+        private FileWatcher fileWatcher;
+        private File file;
+        private Runnable rotationCallback;
+        private InputStream inputStream;
+        private byte[] buffer = new byte[BUFFER_SIZE];
+        private int buffered;
+        private volatile boolean stopped;
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        LogReader(ObjLongConsumer<String> outputConsumer, Pattern deletePattern,
+                  UncaughtExceptionHandler uncaughtExceptionHandler) {
             this.outputConsumer = outputConsumer;
-            this.deletePattern = deletePattern;
-            this.interval = interval;
-            if (uncaughtExceptionHandler != null)
-                setUncaughtExceptionHandler(uncaughtExceptionHandler);
+            this.deleteMatcher = deletePattern.matcher("");
+            this.uncaughtExceptionHandler = uncaughtExceptionHandler;
         }
 
-        LogThread setInputStream(InputStream inputStream) {
+        LogReader setInputStream(InputStream inputStream) {
             this.inputStream = inputStream;
             return this;
         }
 
-        LogThread watchFor(Pattern watchPattern, Runnable watchCallback) {
-            this.watchPatterns.put(watchPattern, watchCallback);
+        // Tails a file instead of reading a stream until its end, the watcher tells when to read again.
+        LogReader setFileWatcher(FileWatcher fileWatcher) {
+            this.fileWatcher = fileWatcher;
             return this;
         }
 
-        @Override
-        public void run() {
-            try (BufferedReader br = new BufferedReader(new InputStreamReader(inputStream))) {
-                //noinspection InfiniteLoopStatement
-                while (true) {
-                    for (String line = br.readLine(); line != null; line = br.readLine()) {
-                        String _line = deletePattern.matcher(line).replaceAll("");
-                        watchPatterns.entrySet().forEach(e -> {
-                            if (e.getKey().matcher(_line).matches())
-                                e.getValue().run();
-                        });
-                        outputConsumer.accept(_line);
+        // Reopens the given file whenever it is replaced by a new one (i.e., after it has been rotated).
+        LogReader followRotation(File file, Runnable rotationCallback) {
+            this.file = file;
+            this.rotationCallback = rotationCallback;
+            return this;
+        }
+
+        // Also writes all lines to the given sink, for output that is not persisted otherwise.
+        LogReader persistTo(LogFileSink sink) {
+            ObjLongConsumer<String> outputConsumer = this.outputConsumer;
+            this.outputConsumer = (line, timestamp) -> {
+                // the sink measures how long lines are buffered, so it is given the time they arrive at
+                sink.write(System.currentTimeMillis(), line);
+                outputConsumer.accept(line, timestamp);
+            };
+            return this;
+        }
+
+        // The callback is run on the LogIngester's callback thread, not the thread that reads the lines.
+        LogReader watchFor(Pattern watchPattern, Runnable watchCallback) {
+            lineMatcher.add(watchPattern, () -> LogIngester.runCallback(watchCallback));
+            return this;
+        }
+
+        // Drops lines below the given log level after matching them, for processes that log more verbosely than
+        // chosen. Lines are leveled as by the Tree, so the same lines are dropped as it would have ignored.
+        LogReader filter(Supplier<LogLevel> logLevel) {
+            this.logLevel = logLevel;
+            return this;
+        }
+
+        void start() {
+            if (fileWatcher != null)
+                fileWatcher.watch(LogIngester::wakeUp);
+            else
+                inputStream = LogIngester.pipe(inputStream);
+            LogIngester.add(this);
+        }
+
+        // The pipe the LogIngester polls for input of a process stream, null if it is woken up otherwise.
+        FileDescriptor getPipe() {
+            return inputStream instanceof LogIngester.PipeInputStream
+                    ? ((LogIngester.PipeInputStream) inputStream).getFD()
+                    : null;
+        }
+
+        // Stops reading right away, remaining input is discarded.
+        void stop() {
+            stopped = true;
+            LogIngester.wakeUp();
+        }
+
+        // Reads all remaining input of a stream (e.g., after its process has exited), then stops. Gives up
+        // after STREAM_FINISH_TIMEOUT, as the stream might be kept open by another process (e.g., a child).
+        void finish() throws InterruptedException {
+            LogIngester.wakeUp();
+            if (!done.await(STREAM_FINISH_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                stop();
+                done.await();
+            }
+        }
+
+        boolean isTailing() {
+            return fileWatcher != null;
+        }
+
+        // Called by the LogIngester, returns whether this reader should be read again later.
+        boolean read() {
+            try {
+                if (stopped) {
+                    close();
+                    return false;
+                }
+                if (readAvailable()) {
+                    if (isRotated()) {
+                        // lines might have been written to the old file right before it was
+                        // rotated, so read them before switching to the new file from its start
+                        readAvailable();
+                        flushLine();
+                        inputStream.close();
+                        inputStream = new FileInputStream(file);
+                        if (rotationCallback != null)
+                            rotationCallback.run();
                     }
-                    Thread.sleep(interval);
+                    return true;
                 }
-            } catch (InterruptedIOException | InterruptedException ignored) {
+                // the stream has ended, so an incomplete last line will not be completed anymore
+                flushLine();
             } catch (IOException e) {
                 e.printStackTrace();
+            } catch (RuntimeException e) {
+                if (uncaughtExceptionHandler == null)
+                    throw e;
+                uncaughtExceptionHandler.uncaughtException(Thread.currentThread(), e);
+            }
+            close();
+            return false;
+        }
+
+        // Reads and handles all input that is available without blocking, returns false at the end of a stream.
+        private boolean readAvailable() throws IOException {
+            while (true) {
+                if (buffered == buffer.length)
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                int length = buffer.length - buffered;
+                if (!isTailing()) {
+                    // process streams do not block (see LogIngester.pipe()), so this is what has arrived so far
+                    int available = inputStream.available();
+                    if (available == 0)
+                        return true;
+                    length = Math.min(length, available);
+                }
+
+                int read = inputStream.read(buffer, buffered, length);
+                if (read < 0)
+                    return isTailing();
+                if (read == 0)
+                    return true;
+
+                int lineStart = 0;
+                for (int i = buffered; i < buffered + read; i++)
+                    if (buffer[i] == '\n') {
+                        handleLine(lineStart, i);
+                        lineStart = i + 1;
+                    }
+                buffered += read - lineStart;
+                System.arraycopy(buffer, lineStart, buffer, 0, buffered);
+            }
+        }
+
+        private void flushLine() {
+            if (buffered > 0)
+                handleLine(0, buffered);
+            buffered = 0;
+        }
+
+        private void handleLine(int start, int end) {
+            if (end > start && buffer[end - 1] == '\r')
+                end--;
+            // the timestamp is parsed before it is deleted from the line
+            long timestamp = LogIndex.parseTimestamp(buffer, start, end);
+            String line = new String(buffer, start, end - start, StandardCharsets.UTF_8);
+            String _line = deleteMatcher.reset(line).replaceAll("");
+            lineMatcher.match(_line);
+            if (logLevel != null) {
+                if (!_line.startsWith(SKIP_LINE_PREFIX)) {
+                    LogLevel lineLogLevel = LogLevel.fromMessage(_line);
+                    dropping = (lineLogLevel != null ? lineLogLevel : DEFAULT_LINE_LOG_LEVEL).getValue()
+                            < logLevel.get().getValue();
+                }
+                if (dropping)
+                    return;
+            }
+            outputConsumer.accept(_line, timestamp >= 0 ? timestamp : System.currentTimeMillis());
+        }
+
+        // whether the followed file is not the one we are currently reading from anymore
+        private boolean isRotated() {
+            if (file == null || !(inputStream instanceof FileInputStream))
+                return false;
+            try {
+                return Os.stat(file.getPath()).st_ino != Os.fstat(((FileInputStream) inputStream).getFD()).st_ino;
+            } catch (ErrnoException | IOException e) {
+                // the new file has not been created yet
+                return false;
+            }
+        }
+
+        private void close() {
+            if (fileWatcher != null)
+                fileWatcher.close();
+            try {
+                inputStream.close();
+            } catch (IOException ignored) {
             }
+            done.countDown();
         }
     }
 
@@ -95,6 +283,8 @@ public class Logger {
         ERROR(4, ERROR_PREFIX),
         CRIT(5, CRIT_PREFIX);
 
+        private static final LogLevel[] LEVELS = values();
+
         private int value;
         private String prefix;
 
@@ -110,15 +300,54 @@ public class Logger {
         public String getPrefix() {
             return prefix;
         }
+
+        // name of this log level as understood by SCION processes
+        String getNativeName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+        // Maps Android log priorities (as used by the app itself) to log levels.
+        static LogLevel fromPriority(int priority) {
+            switch (priority) {
+                case Log.VERBOSE: return TRACE;
+                case Log.DEBUG: return DEBUG;
+                case Log.INFO: return INFO;
+                case Log.WARN: return WARN;
+                case Log.ERROR: return ERROR;
+                default: return CRIT;
+            }
+        }
+
+        static LogLevel fromValue(int value) {
+            return LEVELS[value];
+        }
+
+        // Determines a SCION output line's log level by its prefix without allocating anything
+        // (this is called for every single line, so it should be as cheap as possible).
+        static LogLevel fromMessage(String message) {
+            if (message.length() < 2 || message.charAt(0) != '[')
+                return null;
+            LogLevel logLevel;
+            switch (message.charAt(1)) {
+                case 'T': logLevel = TRACE; break;
+                case 'D': logLevel = DEBUG; break;
+                case 'I': logLevel = INFO; break;
+                case 'W': logLevel = WARN; break;
+                case 'E': logLevel = ERROR; break;
+                case 'C': logLevel = CRIT; break;
+                default: return null;
+            }
+            return message.startsWith(logLevel.prefix) ? logLevel : null;
+        }
     }
 
     public static class Tree extends Timber.DebugTree {
-        private BiConsumer<String, String> outputConsumer;
+        private LogStore logStore;
         private LogLevel logLevel = DEFAULT_LOG_LEVEL;
         private int messageLogLevel = DEFAULT_LINE_LOG_LEVEL.getValue();
 
-        public Tree(BiConsumer<String, String> outputConsumer) {
-            this.outputConsumer = outputConsumer;
+        public Tree(LogStore logStore) {
+            this.logStore = logStore;
         }
 
         public void setLogLevel(LogLevel logLevel) {
@@ -128,29 +357,58 @@ public class Logger {
         @Override
         protected void log(int priority, String tag, @NonNull String message, Throwable t) {
             // assuming Log.DEBUG corresponds exactly to the SCION output (see below)
-            if (priority == Log.DEBUG && !message.startsWith(SKIP_LINE_PREFIX))
-                messageLogLevel = Stream.of(LogLevel.values())
-                        .filter(e -> message.startsWith(e.getPrefix()))
-                        .findFirst().map(LogLevel::getValue).orElse(DEFAULT_LINE_LOG_LEVEL.getValue());
+            if (priority == Log.DEBUG && !message.startsWith(SKIP_LINE_PREFIX)) {
+                LogLevel lineLogLevel = LogLevel.fromMessage(message);
+                messageLogLevel = (lineLogLevel != null ? lineLogLevel : DEFAULT_LINE_LOG_LEVEL).getValue();
+            }
 
             // all SCION output is logged as Log.DEBUG, this output is filtered
-            // according to the log level. All other messages (i.e., from the app),
-            // are logged ignoring the log level.
-            if (priority > Log.DEBUG || logLevel.getValue() <= messageLogLevel) {
-                // log with at least Log.INFO because Logcat tends to ignore DEBUG messages
-                super.log(Math.max(Log.INFO, priority), tag, message, t);
-                outputConsumer.accept(tag, message);
-            }
+            // according to the log level before doing any further work. All other
+            // messages (i.e., from the app), are logged ignoring the log level.
+            if (priority <= Log.DEBUG && logLevel.getValue() > messageLogLevel)
+                return;
+
+            // log with at least Log.INFO because Logcat tends to ignore DEBUG messages
+            super.log(Math.max(Log.INFO, priority), tag, message, t);
+            long timestamp = priority <= Log.DEBUG ? lineTimestamp.get()[0] : -1;
+            if (timestamp < 0)
+                timestamp = System.currentTimeMillis();
+            LogLevel lineLogLevel = priority <= Log.DEBUG
+                    ? LogLevel.fromValue(messageLogLevel)
+                    : LogLevel.fromPriority(priority);
+            logStore.append(timestamp, lineLogLevel, tag, message);
+
+            // SCION output is persisted by the components themselves, or by their log readers
+            LogFileSink appLogSink = Logger.appLogSink;
+            if (priority > Log.DEBUG && appLogSink != null)
+                appLogSink.write(timestamp, lineLogLevel.getPrefix() + tag + ": " + message);
+        }
+    }
+
+    // Persists the app's own log output to the given file (once), so it can be searched along with the SCION output.
+    static synchronized void persistAppLog(File file) {
+        if (appLogSink == null)
+            appLogSink = LogFileSink.of(file);
+    }
+
+    // Logs a line of SCION output as Log.DEBUG, the Tree records it with the given timestamp.
+    private static void logLine(String tag, String line, long timestamp) {
+        long[] _lineTimestamp = lineTimestamp.get();
+        _lineTimestamp[0] = timestamp;
+        try {
+            Timber.tag(tag).d(line);
+        } finally {
+            _lineTimestamp[0] = -1;
         }
     }
 
-    static LogThread createLogThread(String tag, UncaughtExceptionHandler uncaughtExceptionHandler) {
+    static LogReader createLogReader(String tag, UncaughtExceptionHandler uncaughtExceptionHandler) {
         // log all tailed files and processes as Log.DEBUG
-        return new Logger.LogThread(line -> Timber.tag(tag).d(line),
-                DELETE_PATTERN, UPDATE_INTERVAL, uncaughtExceptionHandler);
+        return new Logger.LogReader((line, timestamp) -> logLine(tag, line, timestamp),
+                DELETE_PATTERN, uncaughtExceptionHandler);
     }
 
-    static LogThread createLogThread(String tag, UncaughtExceptionHandler uncaughtExceptionHandler, InputStream inputStream) {
-        return createLogThread(tag, uncaughtExceptionHandler).setInputStream(inputStream);
+    static LogReader createLogReader(String tag, UncaughtExceptionHandler uncaughtExceptionHandler, InputStream inputStream) {
+        return createLogReader(tag, uncaughtExceptionHandler).setInputStream(inputStream);
     }
 }
@@ -18,16 +18,21 @@
 package org.scionlab.scion.as;
 
 import android.content.Context;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
 
 import org.scionlab.scion.UncaughtExceptionHandler;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -43,9 +48,11 @@ public class Process {
     private String binaryPath;
     private String tag;
     private Storage storage;
-    private Logger.LogThread logThread;
+    private Logger.LogReader logReader;
     private Map<String, String> environment = new HashMap<>();
     private ArrayList<String> arguments = new ArrayList<>();
+    private volatile Integer exitCode;
+    private volatile int pid;
 
     private Process(String binaryPath, String tag, Storage storage) {
         this.binaryPath = binaryPath;
@@ -55,12 +62,17 @@ public class Process {
             throw new RuntimeException("process class must be initialized first");
     }
 
-    static Process from(String binaryPath, String tag, Storage storage, Logger.LogThread logThread) {
-        return new Process(binaryPath, tag, storage).setLogThread(logThread);
+    static Process from(String binaryPath, String tag, Storage storage, Logger.LogReader logReader) {
+        return new Process(binaryPath, tag, storage).setLogReader(logReader);
     }
 
     public static Process from(String binaryPath, String tag, Storage storage, UncaughtExceptionHandler uncaughtExceptionHandler) {
-        return from(binaryPath, tag, storage, Logger.createLogThread(tag, uncaughtExceptionHandler));
+        return from(binaryPath, tag, storage, Logger.createLogReader(tag, uncaughtExceptionHandler));
+    }
+
+    // the native binary with the given path in jniLibs
+    static File getBinary(String binaryPath) {
+        return new File(nativeLibraryDir, binaryPath);
     }
 
     static void initialize(Context context) {
@@ -74,16 +86,22 @@ public class Process {
         return Timber.tag(tag);
     }
 
-    private Process setLogThread(Logger.LogThread logThread) {
-        this.logThread = logThread;
+    private Process setLogReader(Logger.LogReader logReader) {
+        this.logReader = logReader;
         return this;
     }
 
+    Logger.LogReader getLogReader() {
+        if (logReader == null)
+            throw new RuntimeException("no log reader given");
+        return logReader;
+    }
+
     @SuppressWarnings("SameParameterValue")
     Process watchFor(Pattern watchPattern, Runnable watchCallback) {
-        if (logThread == null)
-            throw new RuntimeException("no log thread given");
-        logThread.watchFor(watchPattern, watchCallback);
+        if (logReader == null)
+            throw new RuntimeException("no log reader given");
+        logReader.watchFor(watchPattern, watchCallback);
         return this;
     }
 
@@ -131,14 +149,45 @@ public class Process {
         return processBuilder;
     }
 
+    // Returns the exit code of the last run, or null if the process has not exited yet.
+    // Processes that are stopped by interrupting their thread exit with -1.
+    Integer getExitCode() {
+        return exitCode;
+    }
+
+    // Returns the process ID of the running process, or 0 if it is not running (or its ID is unknown).
+    int getPid() {
+        return pid;
+    }
+
+    // java.lang.Process does not expose the process ID before Java 9 (which Android does not implement),
+    // but the implementation on Android (and OpenJDK 8) stores it in a private field.
+    static int getPid(java.lang.Process process) {
+        try {
+            return ((Long) java.lang.Process.class.getMethod("pid").invoke(process)).intValue();
+        } catch (ReflectiveOperationException | RuntimeException ignored) {
+        }
+        try {
+            Field field = process.getClass().getDeclaredField("pid");
+            field.setAccessible(true);
+            return field.getInt(process);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            Timber.w("could not determine process ID: %s", e);
+            return 0;
+        }
+    }
+
     // Runs the SCION binary and blocks until the process exits or the thread is interrupted.
     // Thus, this should only be called from inside a (dedicated) thread.
     public void run() {
         java.lang.Process process;
-        try {
+        exitCode = null;
+        // processes without tag (such as the version check) are not part of starting the AS
+        try (Tracer.Span ignored = tag != null ? Tracer.begin(tag, "spawn") : null) {
             process = log(build()).start();
         } catch (IOException e) {
             e.printStackTrace();
+            exitCode = -1;
             return;
         }
         int ret;
@@ -146,22 +195,73 @@ public class Process {
         if (process == null)
             ret = -1;
         else {
-            // this should create a separate thread that is only used to consume each line of the
-            // process' stdout/stderr stream (see Logger.LogThread)
-            if (logThread != null)
-                logThread.setInputStream(process.getInputStream()).start();
+            // this registers the process' stdout/stderr stream with the log ingester,
+            // which consumes each line of it (see Logger.LogReader)
+            if (logReader != null)
+                logReader.setInputStream(process.getInputStream()).start();
 
             // block until the process dies or the current thread is interrupted, in which case we kill the process
+            pid = getPid(process);
             try {
                 ret = process.waitFor();
+                // make sure the process' last lines have been handled before returning
+                if (logReader != null)
+                    logReader.finish();
             } catch (InterruptedException ignored) {
                 timber().i("thread was interrupted, stopping SCION process");
-                process.destroy();
+                terminate(process);
+                if (logReader != null)
+                    logReader.stop();
                 ret = -1;
             }
         }
 
         timber().i("SCION process exited with %s", ret);
+        pid = 0;
+        exitCode = ret;
+    }
+
+    // Asks the process to exit with SIGTERM, which lets SCION processes close their sockets and databases,
+    // and kills it with SIGKILL (on the scheduler) if it has not exited after STOP_GRACE_PERIOD. Returns once the
+    // process has been reaped, so no zombie is left behind, even if the thread is interrupted again in the meantime.
+    // (waitFor() with a timeout is not used, as it is only available from API 26.)
+    private void terminate(java.lang.Process process) {
+        boolean interrupted = false;
+        long stopTime = System.nanoTime();
+        signal(process, OsConstants.SIGTERM);
+        Scheduler.Task kill = Scheduler.getInstance().schedule(this, "kill", STOP_GRACE_PERIOD, () -> {
+            timber().w("SCION process did not exit within %d ms, killing it", STOP_GRACE_PERIOD);
+            signal(process, OsConstants.SIGKILL);
+        });
+        while (true) {
+            try {
+                process.waitFor();
+                break;
+            } catch (InterruptedException ignored) {
+                interrupted = true;
+            }
+        }
+        kill.cancel();
+        timber().i("SCION process stopped after %d ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - stopTime));
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private void signal(java.lang.Process process, int signal) {
+        int pid = this.pid;
+        if (pid > 0) {
+            try {
+                Os.kill(pid, signal);
+                return;
+            } catch (ErrnoException e) {
+                // the process has exited already if there is no such process, otherwise fall back to destroy()
+                if (e.errno == OsConstants.ESRCH)
+                    return;
+                timber().w("could not send signal %d to SCION process: %s", signal, e);
+            }
+        }
+        // sends SIGKILL on Android, and SIGTERM on OpenJDK
+        process.destroy();
     }
 
     public interface InputStreamHandler {
@@ -170,10 +270,13 @@ public class Process {
 
     public void run(InputStreamHandler streamHandler) {
         java.lang.Process process;
-        try {
+        exitCode = null;
+        // processes without tag (such as the version check) are not part of starting the AS
+        try (Tracer.Span ignored = tag != null ? Tracer.begin(tag, "spawn") : null) {
             process = log(build()).start();
         } catch (IOException e) {
             e.printStackTrace();
+            exitCode = -1;
             return;
         }
         int ret;
@@ -182,21 +285,24 @@ public class Process {
             ret = -1;
         else {
             // this should create a separate thread that is only used to consume each line of the
-            // process' stdout/stderr stream (see Logger.LogThread)
+            // process' stdout/stderr stream
             streamHandler.handle(process.getInputStream());
-            //if (logThread != null)
-                //logThread.setInputStream(process.getInputStream()).start();
+            //if (logReader != null)
+                //logReader.setInputStream(process.getInputStream()).start();
 
             // block until the process dies or the current thread is interrupted, in which case we kill the process
+            pid = getPid(process);
             try {
                 ret = process.waitFor();
             } catch (InterruptedException ignored) {
                 timber().i("thread was interrupted, stopping SCION process");
-                process.destroy();
+                terminate(process);
                 ret = -1;
             }
         }
 
         timber().i("SCION process exited with %s", ret);
+        pid = 0;
+        exitCode = ret;
     }
 }
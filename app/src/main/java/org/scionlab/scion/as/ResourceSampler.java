@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2019-2020 Vera Clemens, Tom Kranz, Tom Heimbrodt, Elias Kuiter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.scionlab.scion.as;
+
+import androidx.annotation.NonNull;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.scionlab.scion.as.Config.ResourceSampler.*;
+
+/**
+ * Periodically samples the CPU, memory and I/O usage of the SCION processes from /proc/[pid]/stat,
+ * /proc/[pid]/status and /proc/[pid]/io (see proc(5)). For each component, the samples are kept in
+ * a fixed-size ring buffer of primitive arrays, so the last SAMPLE_HISTORY samples take a few KiB
+ * and sampling does not allocate anything but the map of process IDs. Samples are taken on the
+ * scheduler's thread and may be read from any thread.
+ */
+public class ResourceSampler {
+    private final Scheduler scheduler;
+    private final Supplier<Map<String, Integer>> pidSupplier;
+    private final Map<String, Series> series = new HashMap<>();
+    // only accessed when sampling, which never happens concurrently
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final long[] fields = new long[3];
+    private Scheduler.Task task;
+    private volatile long samples, failedSamples, samplingTime;
+
+    /**
+     * Resource usage of a process at a point in time (in ms of the scheduler's clock).
+     * Values that could not be determined are -1.
+     */
+    public static class Usage {
+        private final long time, rssKiB, swapKiB, readBytes, writeBytes;
+        private final int cpuPermille, threads;
+
+        private Usage(long time, int cpuPermille, int threads, long rssKiB, long swapKiB, long readBytes, long writeBytes) {
+            this.time = time;
+            this.cpuPermille = cpuPermille;
+            this.threads = threads;
+            this.rssKiB = rssKiB;
+            this.swapKiB = swapKiB;
+            this.readBytes = readBytes;
+            this.writeBytes = writeBytes;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        // CPU time used since the previous sample relative to the time passed, may exceed 100 with several cores
+        public double getCpuPercent() {
+            return cpuPermille < 0 ? -1 : cpuPermille / 10.0;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public long getRssKiB() {
+            return rssKiB;
+        }
+
+        public long getSwapKiB() {
+            return swapKiB;
+        }
+
+        // bytes read from and written to storage since the process was started
+        public long getReadBytes() {
+            return readBytes;
+        }
+
+        public long getWriteBytes() {
+            return writeBytes;
+        }
+
+        @Override
+        public @NonNull String toString() {
+            return String.format("cpu=%.1f%% threads=%d rss=%dKiB swap=%dKiB read=%dB written=%dB",
+                    getCpuPercent(), threads, rssKiB, swapKiB, readBytes, writeBytes);
+        }
+    }
+
+    // Ring buffer of the samples of one component.
+    private static class Series {
+        private final long[] time = new long[SAMPLE_HISTORY], rssKiB = new long[SAMPLE_HISTORY],
+                swapKiB = new long[SAMPLE_HISTORY], readBytes = new long[SAMPLE_HISTORY],
+                writeBytes = new long[SAMPLE_HISTORY];
+        private final int[] cpuPermille = new int[SAMPLE_HISTORY], threads = new int[SAMPLE_HISTORY];
+        private int next, size;
+        // to determine the CPU usage, which is only valid as long as the process ID does not change
+        private int lastPid;
+        private long lastTime, lastCpuTicks;
+
+        synchronized void add(long time, int cpuPermille, int threads, long rssKiB, long swapKiB, long readBytes, long writeBytes) {
+            this.time[next] = time;
+            this.cpuPermille[next] = cpuPermille;
+            this.threads[next] = threads;
+            this.rssKiB[next] = rssKiB;
+            this.swapKiB[next] = swapKiB;
+            this.readBytes[next] = readBytes;
+            this.writeBytes[next] = writeBytes;
+            next = (next + 1) % SAMPLE_HISTORY;
+            size = Math.min(size + 1, SAMPLE_HISTORY);
+        }
+
+        synchronized Usage get(int i) {
+            int j = (next - size + i + SAMPLE_HISTORY) % SAMPLE_HISTORY;
+            return new Usage(time[j], cpuPermille[j], threads[j], rssKiB[j], swapKiB[j], readBytes[j], writeBytes[j]);
+        }
+
+        synchronized Usage getLatest() {
+            return size > 0 ? get(size - 1) : null;
+        }
+
+        synchronized List<Usage> getAll() {
+            List<Usage> usages = new ArrayList<>(size);
+            for (int i = 0; i < size; i++)
+                usages.add(get(i));
+            return usages;
+        }
+    }
+
+    // The supplier returns the process IDs of all running components by name.
+    ResourceSampler(Scheduler scheduler, Supplier<Map<String, Integer>> pidSupplier) {
+        this.scheduler = scheduler;
+        this.pidSupplier = pidSupplier;
+    }
+
+    // Starts sampling every SAMPLE_INTERVAL, unless already started.
+    synchronized void start() {
+        if (task == null)
+            task = scheduler.schedulePeriodically(this, "sampleResources", SAMPLE_INTERVAL, this::sample);
+    }
+
+    // Stops sampling, the samples taken so far are kept.
+    synchronized void stop() {
+        if (task != null)
+            task.cancel();
+        task = null;
+    }
+
+    // Takes one sample of every running component.
+    void sample() {
+        long startTime = System.nanoTime();
+        long now = scheduler.now();
+        for (Map.Entry<String, Integer> entry : pidSupplier.get().entrySet()) {
+            Series _series;
+            synchronized (series) {
+                _series = series.get(entry.getKey());
+                if (_series == null)
+                    series.put(entry.getKey(), _series = new Series());
+            }
+            if (sample(_series, entry.getValue(), now))
+                samples++;
+            else
+                failedSamples++;
+        }
+        samplingTime += System.nanoTime() - startTime;
+    }
+
+    private boolean sample(Series series, int pid, long now) {
+        String path = PROC_PATH + "/" + pid;
+        int length = read(path + "/stat");
+        // the process might have exited in the meantime
+        if (length < 0 || !parseStat(length))
+            return false;
+        long cpuTicks = fields[0] + fields[1];
+        int threads = (int) fields[2];
+
+        // report the CPU usage relative to the previous sample, a new process has no previous sample yet
+        int cpuPermille = -1;
+        if (series.lastPid == pid && now > series.lastTime)
+            cpuPermille = (int) (TimeUnit.SECONDS.toMillis(cpuTicks - series.lastCpuTicks) * 1000 /
+                    CLOCK_TICKS_PER_SECOND / (now - series.lastTime));
+        series.lastPid = pid;
+        series.lastTime = now;
+        series.lastCpuTicks = cpuTicks;
+
+        length = read(path + "/status");
+        long rssKiB = length < 0 ? -1 : findValue(length, "VmRSS:");
+        long swapKiB = length < 0 ? -1 : findValue(length, "VmSwap:");
+        // not available on kernels without I/O accounting
+        length = read(path + "/io");
+        long readBytes = length < 0 ? -1 : findValue(length, "read_bytes:");
+        long writeBytes = length < 0 ? -1 : findValue(length, "write_bytes:");
+
+        series.add(now, cpuPermille, threads, rssKiB, swapKiB, readBytes, writeBytes);
+        return true;
+    }
+
+    // Reads the given file into the buffer and returns how many bytes have been read, or -1 if it is not readable.
+    private int read(String path) {
+        try (FileInputStream inputStream = new FileInputStream(path)) {
+            int length = 0, read;
+            while (length < buffer.length && (read = inputStream.read(buffer, length, buffer.length - length)) >= 0)
+                length += read;
+            return length;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    // Parses utime, stime and num_threads (fields 14, 15 and 20) into fields. As the command name (field 2)
+    // may contain spaces and parentheses, fields are counted from its closing parenthesis on.
+    private boolean parseStat(int length) {
+        int i = length - 1;
+        while (i >= 0 && buffer[i] != ')')
+            i--;
+        if (i < 0)
+            return false;
+        int field = 2;
+        long value = 0;
+        for (i++; i < length; i++) {
+            byte b = buffer[i];
+            if (b == ' ' || b == '\n') {
+                if (field == 14)
+                    fields[0] = value;
+                else if (field == 15)
+                    fields[1] = value;
+                else if (field == 20) {
+                    fields[2] = value;
+                    return true;
+                }
+                field++;
+                value = 0;
+            } else if (b >= '0' && b <= '9')
+                value = value * 10 + b - '0';
+        }
+        return false;
+    }
+
+    // Returns the number following the given key at the beginning of a line, or -1 if there is no such line.
+    private long findValue(int length, String key) {
+        for (int i = 0; i < length; ) {
+            int j = 0;
+            while (j < key.length() && i + j < length && buffer[i + j] == key.charAt(j))
+                j++;
+            i += j;
+            if (j == key.length()) {
+                while (i < length && (buffer[i] == ' ' || buffer[i] == '\t'))
+                    i++;
+                long value = 0;
+                for (; i < length && buffer[i] >= '0' && buffer[i] <= '9'; i++)
+                    value = value * 10 + buffer[i] - '0';
+                return value;
+            }
+            while (i < length && buffer[i++] != '\n')
+                ;
+        }
+        return -1;
+    }
+
+    // Returns the latest sample of each component that has been sampled at all.
+    public Map<String, Usage> getUsage() {
+        Map<String, Usage> usage = new HashMap<>();
+        synchronized (series) {
+            for (Map.Entry<String, Series> entry : series.entrySet()) {
+                Usage latest = entry.getValue().getLatest();
+                if (latest != null)
+                    usage.put(entry.getKey(), latest);
+            }
+        }
+        return usage;
+    }
+
+    // Returns all samples of the given component that are still kept, from oldest to newest.
+    public List<Usage> getHistory(String component) {
+        Series _series;
+        synchronized (series) {
+            _series = series.get(component);
+        }
+        return _series == null ? new ArrayList<>() : _series.getAll();
+    }
+
+    Map<String, Long> getMetrics() {
+        Map<String, Long> metrics = new LinkedHashMap<>();
+        metrics.put("samples", samples);
+        metrics.put("failedSamples", failedSamples);
+        metrics.put("averageSamplingTimeUs", samples + failedSamples > 0
+                ? TimeUnit.NANOSECONDS.toMicros(samplingTime) / (samples + failedSamples) : 0);
+        return metrics;
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2019-2020 Vera Clemens, Tom Kranz, Tom Heimbrodt, Elias Kuiter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.scionlab.scion.as;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+import timber.log.Timber;
+
+/**
+ * Runs all timeouts and periodic tasks of the SCION components on a single thread, so that
+ * components do not need threads of their own that just sleep in a loop. Every task has a name
+ * (for metrics) and an owner, all tasks of an owner can be cancelled at once (which components
+ * do when they are stopped). Tasks should be short, as they delay all other tasks while running,
+ * which shows up as lag in the metrics (the time between when a task was due and when it ran).
+ * Time is taken from a clock that may be replaced, so timing can be tested in simulated time by
+ * advancing the clock and calling runDue(), instead of running the scheduler's thread.
+ */
+class Scheduler {
+    private static Scheduler instance;
+    private final Clock clock;
+    private final PriorityQueue<Task> tasks = new PriorityQueue<>();
+    private final Map<String, Long> maxLagByName = new HashMap<>();
+    private Task running; // the task currently run by runDue(), which is not in the queue
+    private long sequence, tasksRun, totalLag, maxLag;
+
+    interface Clock {
+        // monotonic time in ms, independent of the wall clock
+        Clock SYSTEM = () -> TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+
+        long millis();
+    }
+
+    class Task implements Comparable<Task> {
+        private final Object owner;
+        private final String name;
+        private final long period;
+        private final Runnable runnable;
+        private long dueTime, sequence;
+        private volatile boolean cancelled;
+
+        private Task(Object owner, String name, long dueTime, long period, Runnable runnable) {
+            this.owner = owner;
+            this.name = name;
+            this.dueTime = dueTime;
+            this.period = period;
+            this.runnable = runnable;
+        }
+
+        void cancel() {
+            cancelled = true;
+            synchronized (Scheduler.this) {
+                tasks.remove(this);
+            }
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            // tasks that are due at the same time run in the order they were scheduled
+            return dueTime != other.dueTime
+                    ? Long.compare(dueTime, other.dueTime)
+                    : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    Scheduler(Clock clock) {
+        this.clock = clock;
+    }
+
+    // Returns the scheduler shared by all components, which runs tasks on its own thread.
+    static synchronized Scheduler getInstance() {
+        if (instance == null) {
+            instance = new Scheduler(Clock.SYSTEM);
+            Thread thread = new Thread(instance::run, Scheduler.class.getSimpleName());
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return instance;
+    }
+
+    long now() {
+        return clock.millis();
+    }
+
+    // Runs the given task once after the given delay (in ms).
+    Task schedule(Object owner, String name, long delay, Runnable runnable) {
+        return add(new Task(owner, name, now() + delay, 0, runnable));
+    }
+
+    // Runs the given task every period (in ms), starting one period from now.
+    Task schedulePeriodically(Object owner, String name, long period, Runnable runnable) {
+        if (period <= 0)
+            throw new IllegalArgumentException("period must be positive");
+        return add(new Task(owner, name, now() + period, period, runnable));
+    }
+
+    private synchronized Task add(Task task) {
+        // checked under the lock, so a periodic task cancelled while running is not added again
+        if (task.cancelled)
+            return task;
+        task.sequence = sequence++;
+        tasks.add(task);
+        notifyAll();
+        return task;
+    }
+
+    synchronized void cancelAll(Object owner) {
+        for (Iterator<Task> iterator = tasks.iterator(); iterator.hasNext(); ) {
+            Task task = iterator.next();
+            if (task.owner == owner) {
+                task.cancelled = true;
+                iterator.remove();
+            }
+        }
+        if (running != null && running.owner == owner)
+            running.cancelled = true;
+    }
+
+    // Runs all tasks that are due by now, returns how many have been run.
+    int runDue() {
+        int run = 0;
+        while (true) {
+            Task task;
+            long now = now();
+            synchronized (this) {
+                task = tasks.peek();
+                if (task == null || task.dueTime > now)
+                    return run;
+                tasks.poll();
+                running = task;
+                long lag = now - task.dueTime;
+                tasksRun++;
+                totalLag += lag;
+                maxLag = Math.max(maxLag, lag);
+                Long maxLagOfName = maxLagByName.get(task.name);
+                if (maxLagOfName == null || lag > maxLagOfName)
+                    maxLagByName.put(task.name, lag);
+            }
+
+            // run without holding the lock, so tasks can schedule or cancel other tasks
+            if (!task.cancelled) {
+                // a failing task must not take down the thread that all other tasks run on
+                try {
+                    task.runnable.run();
+                } catch (RuntimeException e) {
+                    Timber.e("task %s failed: %s", task.name, e);
+                }
+            }
+            run++;
+            synchronized (this) {
+                running = null;
+                if (task.period > 0) {
+                    // skip runs that have been missed (e.g., while the device was asleep) instead of catching up
+                    task.dueTime += task.period;
+                    if (task.dueTime <= now)
+                        task.dueTime = now + task.period;
+                    add(task);
+                }
+            }
+        }
+    }
+
+    private void run() {
+        //noinspection InfiniteLoopStatement
+        while (true) {
+            synchronized (this) {
+                try {
+                    Task task = tasks.peek();
+                    long delay = task == null ? 0 : task.dueTime - now();
+                    if (task == null || delay > 0) {
+                        wait(task == null ? 0 : delay);
+                        continue;
+                    }
+                } catch (InterruptedException ignored) {
+                }
+            }
+            runDue();
+        }
+    }
+
+    synchronized Map<String, Long> getMetrics() {
+        Map<String, Long> metrics = new LinkedHashMap<>();
+        metrics.put("pendingTasks", (long) tasks.size());
+        metrics.put("tasksRun", tasksRun);
+        metrics.put("averageLagMs", tasksRun > 0 ? totalLag / tasksRun : 0);
+        metrics.put("maxLagMs", maxLag);
+        for (Map.Entry<String, Long> entry : maxLagByName.entrySet())
+            metrics.put("maxLagMs." + entry.getKey(), entry.getValue());
+        return metrics;
+    }
+}
@@ -25,6 +25,8 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicReference;
@@ -34,8 +36,9 @@ import java.util.stream.Stream;
 import timber.log.Timber;
 
 import static org.scionlab.scion.as.Config.Dispatcher.BINARY_FLAG;
+import static org.scionlab.scion.as.Config.Logger.APP_LOG_PATH;
 import static org.scionlab.scion.as.Config.Logger.DELETE_PATTERN;
-import static org.scionlab.scion.as.Config.Logger.UPDATE_INTERVAL;
+import static org.scionlab.scion.as.Config.Logger.LOG_DIRECTORY_PATH;
 import static org.scionlab.scion.as.Config.Scion.*;
 
 /**
@@ -45,7 +48,10 @@ public class ScionAS {
     private final Service service;
     protected final Storage storage;
     private final ComponentRegistry componentRegistry;
+    private final LogIndex logIndex;
     private Scmp scmp;
+    private volatile long startTime;
+    private volatile boolean warmStart;
 
     public enum State {
         STOPPED, STARTING, HEALTHY, UNHEALTHY;
@@ -73,8 +79,8 @@ public class ScionAS {
 
         public String getScionVersion(Storage storage) {
             AtomicReference<String> version = new AtomicReference<>();
-            Process.from(binaryPath, null, storage, new Logger.LogThread(
-                    version::set, DELETE_PATTERN, UPDATE_INTERVAL, null))
+            Process.from(binaryPath, null, storage, new Logger.LogReader(
+                    (line, timestamp) -> version.set(line), DELETE_PATTERN, null))
                     .addArgument(BINARY_FLAG).addArgument(VERSION_FLAG).run();
             String _version = version.get();
             if (_version != null) {
@@ -93,20 +99,58 @@ public class ScionAS {
         this.service = service;
         Process.initialize(service);
         storage = Storage.from(service);
-        componentRegistry = new ComponentRegistry(service, storage,
-                (Map<String, State> componentState) ->
-                        stateCallback.accept(getState(), componentState));
+        Logger.persistAppLog(storage.getFile(APP_LOG_PATH));
+        logIndex = LogIndex.watch(storage.getFile(LOG_DIRECTORY_PATH));
+        Scheduler scheduler = Scheduler.getInstance();
+        componentRegistry = new ComponentRegistry(service, storage, (state, componentState) -> {
+            // how long it takes to start (see DatabaseManager)
+            if (state == State.HEALTHY && startTime > 0) {
+                Timber.i("SCION AS is healthy %d ms after starting (%s)",
+                        scheduler.now() - startTime, warmStart ? "warm start" : "cold start");
+                startTime = 0;
+            }
+            stateCallback.accept(state, componentState);
+        }, scheduler);
     }
 
-    @SuppressWarnings("OptionalGetWithoutIsPresent")
     public void start(Version version, String genDirectory, String vpnConfigFile, String pingAddress) {
+        startTime = componentRegistry.getScheduler().now();
+        if (writeConfiguration(genDirectory, vpnConfigFile))
+            startComponents(version, pingAddress);
+    }
+
+    // Starts the AS with the configuration written by an earlier start with the given hash,
+    // returns false if that configuration is not available (anymore).
+    boolean startWithConfiguration(Version version, String pingAddress, String configurationHash) {
+        File hashFile = storage.getFile(CONFIGURATION_HASH_PATH);
+        if (!hashFile.exists() || !storage.readFile(CONFIGURATION_HASH_PATH).trim().equals(configurationHash))
+            return false;
+        Timber.i("reusing SCION configuration");
+        startTime = componentRegistry.getScheduler().now();
+        startComponents(version, pingAddress);
+        return true;
+    }
+
+    // Starts the AS with the certs, keys and OpenVPN configuration that have been written to the staged config
+    // directory (see staged()) and the given topology. If a hash of the imported configuration is given, the
+    // written configuration can be reused by starting with the same hash again.
+    void startWithStagedConfiguration(Version version, String topology, String pingAddress, String configurationHash) {
+        startTime = componentRegistry.getScheduler().now();
+        if (commitConfiguration(topology, configurationHash))
+            startComponents(version, pingAddress);
+    }
+
+    @SuppressWarnings("OptionalGetWithoutIsPresent")
+    private boolean writeConfiguration(String genDirectory, String vpnConfigFile) {
         Timber.i("writing SCION configuration");
-        if (storage.countFilesInDirectory(new File(genDirectory)) > GEN_DIRECTORY_FILE_LIMIT) {
+        if (storage.countFilesInDirectory(new File(genDirectory), GEN_DIRECTORY_FILE_LIMIT) > GEN_DIRECTORY_FILE_LIMIT) {
             Timber.e("too many files in gen directory, did you choose the right directory?");
-            return;
+            return false;
         }
+        Tracer.Span span = Tracer.begin(Config.Tracer.SETUP_CATEGORY, "copyGenDirectory");
         storage.deleteFileOrDirectory(GEN_DIRECTORY_PATH);
         storage.copyFileOrDirectory(new File(genDirectory), GEN_DIRECTORY_PATH);
+        span.end();
 
         Optional<String> isdPath = storage.findInDirectory(GEN_DIRECTORY_PATH, ISD_DIRECTORY_PATH_REGEX);
         Optional<String> asPath = storage.findInDirectory(isdPath, AS_DIRECTORY_PATH_REGEX);
@@ -119,38 +163,85 @@ public class ScionAS {
         if (!Stream.of(isdPath, asPath, componentPath, endhostPath, certsPath, keysPath, topologyPath)
                 .allMatch(Optional::isPresent)) {
             Timber.e("unexpected gen directory structure");
-            return;
+            return false;
         }
 
-        storage.deleteFileOrDirectory(CONFIG_DIRECTORY_PATH);
-        storage.createDirectory(CONFIG_DIRECTORY_PATH);
-        storage.copyFileOrDirectory(certsPath.get(), CERTS_DIRECTORY_PATH);
-        storage.copyFileOrDirectory(keysPath.get(), KEYS_DIRECTORY_PATH);
-        if (!writeTopology(topologyPath.get()))
-            return;
+        span = Tracer.begin(Config.Tracer.SETUP_CATEGORY, "copyConfiguration");
+        storage.deleteFileOrDirectory(STAGED_CONFIG_DIRECTORY_PATH);
+        storage.createDirectory(STAGED_CONFIG_DIRECTORY_PATH);
+        storage.copyFileOrDirectory(certsPath.get(), staged(CERTS_DIRECTORY_PATH));
+        storage.copyFileOrDirectory(keysPath.get(), staged(KEYS_DIRECTORY_PATH));
+        if (vpnConfigFile != null)
+            storage.copyFileOrDirectory(new File(vpnConfigFile), staged(VPN_CONFIG_PATH));
+        span.end();
+        String topology = storage.readFile(topologyPath.get());
         storage.deleteFileOrDirectory(GEN_DIRECTORY_PATH);
+        return commitConfiguration(topology, null);
+    }
+
+    // Writes the topology to the staged config directory, which then replaces the current configuration
+    // at once, so an interrupted import never leaves an incomplete configuration behind.
+    private boolean commitConfiguration(String topology, String configurationHash) {
+        try (Tracer.Span ignored = Tracer.begin(Config.Tracer.SETUP_CATEGORY, "writeTopology")) {
+            if (!writeTopology(topology, staged(TOPOLOGY_PATH)))
+                return false;
+        }
+        if (configurationHash != null) {
+            try {
+                storage.writeFile(staged(CONFIGURATION_HASH_PATH), configurationHash);
+            } catch (IOException e) {
+                Timber.e(e);
+                return false;
+            }
+        }
+        if (!storage.replaceDirectory(STAGED_CONFIG_DIRECTORY_PATH, CONFIG_DIRECTORY_PATH)) {
+            Timber.e("could not replace SCION configuration");
+            return false;
+        }
+        return true;
+    }
+
+    // Returns where a file in the config directory is written to before the configuration is complete.
+    static String staged(String path) {
+        return STAGED_CONFIG_DIRECTORY_PATH + path.substring(CONFIG_DIRECTORY_PATH.length());
+    }
+
+    private void startComponents(Version version, String pingAddress) {
+        warmStart = DatabaseManager.checkFingerprint(storage, Process.getBinary(version.getBinaryPath()));
 
         Timber.i("starting SCION AS");
+        Tracer.Span span = Tracer.begin(Config.Tracer.SETUP_CATEGORY, "startComponents");
         componentRegistry
                 .setBinaryPath(version.getBinaryPath())
-                .start(new VPNClient(service, vpnConfigFile == null
-                        ? null
-                        : storage.readFile(new File(vpnConfigFile))))
-                .start(new BorderRouter())
-                .start(new ControlServer())
-                .start(new Dispatcher())
-                .start(new Daemon())
-                .start(scmp = new Scmp(pingAddress))
-                //.start(new SensorFetcher())
+                .setReuseDatabases(warmStart)
+                .start(new VPNClient(service, storage.getFile(VPN_CONFIG_PATH).exists()
+                                ? storage.readFile(VPN_CONFIG_PATH)
+                                : null),
+                        new BorderRouter(),
+                        new ControlServer(),
+                        new Dispatcher(),
+                        new Daemon(),
+                        scmp = new Scmp(pingAddress)
+                        //new SensorFetcher()
+                )
                 .notifyStateChange();
+        span.end();
     }
 
     public void stop() {
         Timber.i("stopping SCION AS");
+        startTime = 0;
         componentRegistry.stopAll().notifyStateChange();
         scmp = null;
+        Timber.i("state publisher metrics: %s", componentRegistry.getStatePublisherMetrics());
+        Timber.i("scheduler metrics: %s", componentRegistry.getScheduler().getMetrics());
+        Timber.i("resource sampler metrics: %s", componentRegistry.getResourceSampler().getMetrics());
+        Timber.i("log file metrics: %s", LogFileSink.getMetrics());
+        Timber.i("log ingester metrics: %s", LogIngester.getMetrics());
+        Timber.i("storage metrics: %s", StorageMetrics.getMetrics());
     }
 
+    // see StatePublisher, which derives the same state incrementally
     public State getState() {
         if (!componentRegistry.hasRegisteredComponents())
             return State.STOPPED;
@@ -169,9 +260,39 @@ public class ScionAS {
         }
     }
 
-    private boolean writeTopology(String topologyPath) {
+    // Returns the latest resource usage of each component that runs a process, keyed like the component state
+    // passed to the state callback.
+    public Map<String, ResourceSampler.Usage> getResourceUsage() {
+        return componentRegistry.getResourceSampler().getUsage();
+    }
+
+    public List<ResourceSampler.Usage> getResourceHistory(String component) {
+        return componentRegistry.getResourceSampler().getHistory(component);
+    }
+
+    // Returns the counts, bytes and latencies of file operations since the last start, grouped by storage tier
+    // and logical path (see StorageMetrics).
+    public Map<String, Long> getStorageMetrics() {
+        return StorageMetrics.getMetrics();
+    }
+
+    public LogIndex getLogIndex() {
+        return logIndex;
+    }
+
+    public void setLogLevel(Logger.LogLevel logLevel) {
+        componentRegistry.setLogLevel(logLevel);
+        if (componentRegistry.hasRegisteredComponents()) {
+            // restarting components blocks until they have stopped, so do not block the caller
+            Thread thread = new Thread(componentRegistry::restartComponentsWithOutdatedLogLevel);
+            thread.setUncaughtExceptionHandler(componentRegistry.getUncaughtExceptionHandler());
+            thread.start();
+        }
+    }
+
+    private boolean writeTopology(String topology, String path) {
         try {
-            JSONObject root = new JSONObject(storage.readFile(topologyPath));
+            JSONObject root = new JSONObject(topology);
             JSONObject borderRouters = root.getJSONObject(BORDER_ROUTERS_JSON_PATH);
             JSONObject interfaces = borderRouters.getJSONObject(borderRouters.keys().next()).getJSONObject(INTERFACES_JSON_PATH);
             JSONObject iface = interfaces.getJSONObject(interfaces.keys().next());
@@ -181,11 +302,15 @@ public class ScionAS {
             String remoteIa = iface.getString(IA_JSON_PATH);
             String remoteOverlayAddr = iface.getJSONObject(REMOTE_OVERLAY_JSON_PATH).getString(OVERLAY_ADDR_JSON_PATH);
             int remoteOverlayPort = iface.getJSONObject(REMOTE_OVERLAY_JSON_PATH).getInt(OVERLAY_PORT_JSON_PATH);
-            storage.writeFile(TOPOLOGY_PATH,
-                    String.format(storage.readAssetFile(TOPOLOGY_TEMPLATE_PATH),
-                        remoteIa, overlayAddr, overlayPort,
-                        remoteOverlayAddr, remoteOverlayPort, ia));
-        } catch (JSONException e) {
+            storage.writeFile(path, Template.get(storage, TOPOLOGY_TEMPLATE_PATH, TOPOLOGY_TEMPLATE_PLACEHOLDERS)
+                    .with("ia", ia)
+                    .with("remote_ia", remoteIa)
+                    .with("public_overlay_addr", overlayAddr)
+                    .with("public_overlay_port", overlayPort)
+                    .with("remote_overlay_addr", remoteOverlayAddr)
+                    .with("remote_overlay_port", remoteOverlayPort)
+                    .render());
+        } catch (JSONException | IOException e) {
             Timber.e(e);
             return false;
         }
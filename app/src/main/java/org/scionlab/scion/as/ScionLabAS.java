@@ -19,15 +19,22 @@ package org.scionlab.scion.as;
 
 import android.app.Service;
 import android.content.Context;
+import android.text.TextUtils;
 
-import org.rauschig.jarchivelib.ArchiveFormat;
-import org.rauschig.jarchivelib.ArchiverFactory;
-import org.rauschig.jarchivelib.CompressionType;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.Map;
-import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 
 import timber.log.Timber;
@@ -42,16 +49,116 @@ public class ScionLabAS extends ScionAS {
         super(service, stateCallback);
     }
 
+    // Reuses the configuration written for the last import of the same archive, only changed archives are imported.
     public void start(InputStream scionLabConfigurationInputStream, String pingAddress) throws IOException {
-        Timber.i("extracting SCIONLab configuration");
-        ArchiverFactory.createArchiver(ArchiveFormat.TAR, CompressionType.GZIP)
-                .extract(scionLabConfigurationInputStream, storage.getFile(TMP_DIRECTORY_PATH));
-        Optional<String> vpnConfigPath = storage.findInDirectory(TMP_DIRECTORY_PATH, TMP_VPN_CONFIG_PATH_REGEX);
-        start(Version.SCIONLAB,
-                storage.getAbsolutePath(TMP_GEN_DIRECTORY_PATH),
-                vpnConfigPath.map(storage::getAbsolutePath).orElse(null),
-                pingAddress);
-        storage.deleteFileOrDirectory(TMP_DIRECTORY_PATH);
+        Tracer.reset();
+        StorageMetrics.reset();
+        byte[] archive;
+        String hash;
+        try (Tracer.Span ignored = Tracer.begin(Config.Tracer.SETUP_CATEGORY, "hash")) {
+            archive = readArchive(scionLabConfigurationInputStream);
+            hash = Storage.toHexString(MessageDigest.getInstance("SHA-256").digest(archive));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        if (startWithConfiguration(Version.SCIONLAB, pingAddress, hash))
+            return;
+
+        String topology;
+        try (Tracer.Span ignored = Tracer.begin(Config.Tracer.SETUP_CATEGORY, "import")) {
+            topology = importArchive(archive);
+        }
+        if (topology != null)
+            startWithStagedConfiguration(Version.SCIONLAB, topology, pingAddress, hash);
+    }
+
+    // Reads the archive in one pass and writes only the files needed to the staged config directory (see ScionAS):
+    // the certs and keys of the first gen/ISD*/AS*/cs* directory and client*.conf. Returns the topology of that
+    // directory (which is not written as is), or null if the archive does not contain a SCIONLab configuration.
+    private String importArchive(byte[] archive) throws IOException {
+        Timber.i("importing SCIONLab configuration");
+        long importTime = System.nanoTime(), bytesWritten = 0;
+        int entries = 0, filesWritten = 0;
+        String componentDirectory = null, topology = null;
+        boolean hasEndhost = false, hasCerts = false, hasKeys = false;
+        storage.deleteFileOrDirectory(STAGED_CONFIG_DIRECTORY_PATH);
+        storage.createDirectory(STAGED_CONFIG_DIRECTORY_PATH);
+
+        try (TarArchiveInputStream tar = new TarArchiveInputStream(
+                new GzipCompressorInputStream(new ByteArrayInputStream(archive)))) {
+            for (TarArchiveEntry entry = tar.getNextTarEntry(); entry != null; entry = tar.getNextTarEntry()) {
+                if (++entries > CONFIGURATION_ENTRY_LIMIT) {
+                    Timber.e("too many files in SCIONLab configuration, did you choose the right file?");
+                    return null;
+                }
+                String name = entry.getName().replaceFirst("^\\./", "");
+                // the archive's root directory itself (as in archives created with tar -C dir .)
+                if (name.isEmpty() || name.equals("."))
+                    continue;
+                String[] segments = name.split("/");
+                // entry names are joined into paths below, so they must not point outside the staged config directory
+                for (String segment : segments)
+                    if (segment.isEmpty() || segment.equals("..")) {
+                        Timber.e("invalid path %s in SCIONLab configuration", entry.getName());
+                        return null;
+                    }
+                if (segments.length == 1 && segments[0].matches(VPN_CONFIG_PATH_REGEX) && entry.isFile()) {
+                    bytesWritten += storage.writeFile(staged(VPN_CONFIG_PATH), tar);
+                    filesWritten++;
+                    continue;
+                }
+                if (segments.length < 4 || !segments[0].matches(GEN_DIRECTORY_PATH_REGEX) ||
+                        !segments[1].matches(ISD_DIRECTORY_PATH_REGEX) || !segments[2].matches(AS_DIRECTORY_PATH_REGEX))
+                    continue;
+                hasEndhost |= segments[3].matches(ENDHOST_DIRECTORY_PATH_REGEX);
+                if (!segments[3].matches(COMPONENT_DIRECTORY_PATH_REGEX) || !entry.isFile())
+                    continue;
+                String _componentDirectory = TextUtils.join("/", Arrays.asList(segments).subList(0, 4));
+                if (componentDirectory == null)
+                    componentDirectory = _componentDirectory;
+                else if (!componentDirectory.equals(_componentDirectory))
+                    continue;
+
+                if (segments.length == 5 && segments[4].matches(TOPOLOGY_PATH_REGEX)) {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    byte[] buffer = new byte[8192];
+                    for (int len = tar.read(buffer); len > 0; len = tar.read(buffer))
+                        out.write(buffer, 0, len);
+                    topology = out.toString(StandardCharsets.UTF_8.name());
+                } else if (segments.length > 5 && (segments[4].matches(CERTS_DIRECTORY_PATH_REGEX) ||
+                        segments[4].matches(KEYS_DIRECTORY_PATH_REGEX))) {
+                    boolean isCerts = segments[4].matches(CERTS_DIRECTORY_PATH_REGEX);
+                    hasCerts |= isCerts;
+                    hasKeys |= !isCerts;
+                    String path = (isCerts ? CERTS_DIRECTORY_PATH : KEYS_DIRECTORY_PATH) + "/" +
+                            TextUtils.join("/", Arrays.asList(segments).subList(5, segments.length));
+                    bytesWritten += storage.writeFile(staged(path), tar);
+                    filesWritten++;
+                }
+            }
+        }
+
+        if (topology == null || !hasEndhost || !hasCerts || !hasKeys) {
+            Timber.e("unexpected SCIONLab configuration structure");
+            return null;
+        }
+        Timber.i("imported SCIONLab configuration in %d ms: read %d bytes in %d entries, wrote %d bytes in %d files",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - importTime),
+                archive.length, entries, bytesWritten, filesWritten);
+        return topology;
+    }
+
+    private static byte[] readArchive(InputStream inputStream) throws IOException {
+        try (InputStream in = inputStream) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[65536];
+            for (int len = in.read(buffer); len > 0; len = in.read(buffer)) {
+                out.write(buffer, 0, len);
+                if (out.size() > CONFIGURATION_SIZE_LIMIT)
+                    throw new IOException("SCIONLab configuration is too large, did you choose the right file?");
+            }
+            return out.toByteArray();
+        }
     }
 
     public static String getScionVersion(Context context) {
@@ -20,7 +20,7 @@ package org.scionlab.scion.as;
 import static org.scionlab.scion.as.Config.Scmp.*;
 
 class Scmp extends Component {
-    private long lastPingReceived;
+    private volatile long lastPingReceived;
     private String remoteAddress;
 
     Scmp(String remoteAddress) {
@@ -32,35 +32,35 @@ class Scmp extends Component {
         return new Class[]{Dispatcher.class, VPNClient.class, BorderRouter.class, ControlServer.class, Daemon.class};
     }
 
+    @Override
+    Supervisor.RestartPolicy getRestartPolicy() {
+        // pings are sent continuously, so the process should not exit at all
+        return Supervisor.RestartPolicy.ALWAYS;
+    }
+
     @Override
     boolean isHealthy() {
-        return getState() == State.READY && System.currentTimeMillis() - lastPingReceived <= HEALTH_TIMEOUT;
+        return getState() == State.READY && componentRegistry != null &&
+                componentRegistry.getScheduler().now() - lastPingReceived <= HEALTH_TIMEOUT;
     }
 
     @Override
     void run() {
-        Thread notifyStateChangeThread = new Thread(() -> {
-            try {
-                while (true) {
-                    notifyStateChange();
-                    Thread.sleep(HEALTH_TIMEOUT);
-                }
-            } catch (InterruptedException ignored) {
-            }
-        });
-        notifyStateChangeThread.setUncaughtExceptionHandler(componentRegistry.getUncaughtExceptionHandler());
-        notifyStateChangeThread.start();
+        Scheduler scheduler = componentRegistry.getScheduler();
+        notifyStateChange();
+        // ping replies notify about state changes, but someone has to notice when they stop arriving
+        Scheduler.Task healthCheck = schedulePeriodically("healthCheck", HEALTH_TIMEOUT, this::notifyStateChange);
 
         process.addArgument(BINARY_FLAG)
                 .addArgument(ECHO_FLAG)
                 .addArgument(DISPATCHER_SOCKET_FLAG, storage.getAbsolutePath(Config.Dispatcher.SOCKET_PATH))
                 .addArgument(REMOTE_FLAG, remoteAddress)
                 .watchFor(READY_PATTERN, () -> {
-                    lastPingReceived = System.currentTimeMillis();
+                    lastPingReceived = scheduler.now();
                     setReady();
                 })
                 .run();
 
-        notifyStateChangeThread.interrupt();
+        healthCheck.cancel();
     }
 }
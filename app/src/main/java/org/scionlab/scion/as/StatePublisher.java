@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2019-2020 Vera Clemens, Tom Kranz, Tom Heimbrodt, Elias Kuiter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.scionlab.scion.as;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import static org.scionlab.scion.as.Config.StatePublisher.*;
+
+/**
+ * Passes state changes of the SCION AS on to the state callback (which broadcasts them to the
+ * user interface and updates the notification). State changes are requested very frequently
+ * (e.g., whenever Scmp receives a ping reply), but rarely change anything. So requests are
+ * coalesced into at most one evaluation per STATE_PUBLISH_INTERVAL, and the callback is only
+ * invoked when the state has actually changed since it was last invoked. The callback is invoked
+ * on the scheduler's thread.
+ */
+class StatePublisher {
+    private final Supplier<Map<String, ScionAS.State>> componentStateSupplier;
+    private final String healthIndicator;
+    private final BiConsumer<ScionAS.State, Map<String, ScionAS.State>> stateCallback;
+    private final Scheduler scheduler;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicLong requests = new AtomicLong(), evaluations = new AtomicLong(), publications = new AtomicLong();
+    private volatile long lastEvaluated = Long.MIN_VALUE / 2;
+    // the following are only accessed when evaluating, which never happens concurrently
+    private Map<String, ScionAS.State> componentState = new HashMap<>();
+    private final EnumMap<ScionAS.State, Integer> componentsByState = new EnumMap<>(ScionAS.State.class);
+    private ScionAS.State state;
+
+    // The health indicator is the component that determines whether the whole AS is healthy.
+    StatePublisher(Supplier<Map<String, ScionAS.State>> componentStateSupplier, String healthIndicator,
+                   BiConsumer<ScionAS.State, Map<String, ScionAS.State>> stateCallback, Scheduler scheduler) {
+        this.componentStateSupplier = componentStateSupplier;
+        this.healthIndicator = healthIndicator;
+        this.stateCallback = stateCallback;
+        this.scheduler = scheduler;
+        for (ScionAS.State state : ScionAS.State.values())
+            componentsByState.put(state, 0);
+    }
+
+    // Requests to publish the current state (soon), may be called from any thread.
+    void request() {
+        requests.incrementAndGet();
+        if (scheduled.compareAndSet(false, true)) {
+            long delay = lastEvaluated + STATE_PUBLISH_INTERVAL - scheduler.now();
+            scheduler.schedule(this, "publishState", Math.max(0, delay), this::evaluate);
+        }
+    }
+
+    private void evaluate() {
+        // reset before looking at the state, so changes from now on are evaluated again
+        scheduled.set(false);
+        lastEvaluated = scheduler.now();
+        evaluations.incrementAndGet();
+
+        // only count the components that have changed, and derive the AS state from these counts
+        Map<String, ScionAS.State> _componentState = componentStateSupplier.get();
+        boolean changed = false;
+        for (Map.Entry<String, ScionAS.State> entry : _componentState.entrySet()) {
+            ScionAS.State previous = componentState.get(entry.getKey());
+            if (previous != entry.getValue()) {
+                if (previous != null)
+                    componentsByState.put(previous, componentsByState.get(previous) - 1);
+                componentsByState.put(entry.getValue(), componentsByState.get(entry.getValue()) + 1);
+                changed = true;
+            }
+        }
+        for (Map.Entry<String, ScionAS.State> entry : componentState.entrySet())
+            if (!_componentState.containsKey(entry.getKey())) {
+                componentsByState.put(entry.getValue(), componentsByState.get(entry.getValue()) - 1);
+                changed = true;
+            }
+
+        ScionAS.State _state = getState(_componentState.size(), _componentState.get(healthIndicator));
+        if (!changed && _state == state)
+            return;
+        componentState = _componentState;
+        state = _state;
+        publications.incrementAndGet();
+        stateCallback.accept(state, new HashMap<>(componentState));
+    }
+
+    // see ScionAS.getState()
+    private ScionAS.State getState(int components, ScionAS.State healthIndicatorState) {
+        if (components == 0)
+            return ScionAS.State.STOPPED;
+        if (componentsByState.get(ScionAS.State.STARTING) > 0 && componentsByState.get(ScionAS.State.STOPPED) == 0)
+            return ScionAS.State.STARTING;
+        if (healthIndicatorState == ScionAS.State.HEALTHY)
+            return ScionAS.State.HEALTHY;
+        return ScionAS.State.UNHEALTHY;
+    }
+
+    // Counts how many requested state changes were not published (and thus, broadcast) at all.
+    Map<String, Long> getMetrics() {
+        Map<String, Long> metrics = new LinkedHashMap<>();
+        metrics.put("requests", requests.get());
+        metrics.put("evaluations", evaluations.get());
+        metrics.put("publications", publications.get());
+        metrics.put("savedPublications", requests.get() - publications.get());
+        return metrics;
+    }
+}
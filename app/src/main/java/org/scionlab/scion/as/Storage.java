@@ -18,21 +18,31 @@
 package org.scionlab.scion.as;
 
 import android.content.Context;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
 
-import java.io.BufferedReader;
+import org.scionlab.scion.as.StorageMetrics.Operation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileDescriptor;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.stream.Stream;
 
+import static org.scionlab.scion.as.Config.Storage.*;
+
 /**
  * Utilities for handling files and directories.
  * All operations are scoped to the application's file directory (internal or external).
@@ -40,8 +50,11 @@ import java.util.stream.Stream;
  * External storage, stored at /storage, is potentially available to other applications,
  * however, some security restrictions apply (e.g., Unix sockets must be stored internally).
  * In general, we try to store as much files externally as possible to facilitate debugging.
+ * Operations on files are counted by StorageMetrics.
  */
 public class Storage {
+    private static final int BUFFER_SIZE = 65536;
+    private static final String TEMPORARY_EXTENSION = ".tmp";
     private Context context;
 
     private Storage(Context context) {
@@ -93,14 +106,33 @@ public class Storage {
         return getFile(path).getAbsolutePath();
     }
 
-    private String readFile(InputStream inputStream) {
-        try(BufferedReader br = new BufferedReader(new InputStreamReader(inputStream))) {
-            StringBuilder sb = new StringBuilder();
-            for (String line = br.readLine(); line != null; line = br.readLine()) {
-                sb.append(line);
-                sb.append('\n');
-            }
-            return sb.toString();
+    // Returns the file's path relative to its storage tier (e.g., EXTERNAL/logs/daemon.log) to record operations
+    // on it, or null if metrics are disabled, so the path is only determined when needed.
+    private String getMetricsPath(File file) {
+        if (!StorageMetrics.isEnabled())
+            return null;
+        String path = file.getAbsolutePath();
+        for (String tier : new String[]{EXTERNAL_TIER, INTERNAL_TIER}) {
+            File dir = getFilesDir(context, tier + "/");
+            String dirPath = dir == null ? null : dir.getAbsolutePath() + "/";
+            if (dirPath != null && path.startsWith(dirPath))
+                return tier + "/" + path.substring(dirPath.length());
+        }
+        return path;
+    }
+
+    // Reads the whole stream as is (i.e., without normalizing line endings), which is closed afterwards.
+    private String readFile(InputStream inputStream, String metricsPath) {
+        if (inputStream == null)
+            return "";
+        long start = StorageMetrics.start();
+        try (InputStream in = inputStream) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(in.available(), BUFFER_SIZE));
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (int len = in.read(buffer); len > 0; len = in.read(buffer))
+                out.write(buffer, 0, len);
+            StorageMetrics.record(Operation.READ, metricsPath, out.size(), start);
+            return out.toString(StandardCharsets.UTF_8.name());
         } catch (IOException e) {
             e.printStackTrace();
             return "";
@@ -108,16 +140,16 @@ public class Storage {
     }
 
     String readFile(String path) {
-        return readFile(getInputStream(path));
+        return readFile(getInputStream(path), path);
     }
 
     String readFile(File file) {
-        return readFile(getInputStream(file));
+        return readFile(getInputStream(file), getMetricsPath(file));
     }
 
     String readAssetFile(String path) {
         try {
-            return readFile(context.getAssets().open(path));
+            return readFile(context.getAssets().open(path), ASSETS_TIER + "/" + path);
         } catch (IOException e) {
             e.printStackTrace();
             return "";
@@ -125,22 +157,38 @@ public class Storage {
     }
 
     void createDirectory(String path) {
+        long start = StorageMetrics.start();
         //noinspection ResultOfMethodCallIgnored
         getFile(path).mkdirs();
+        StorageMetrics.record(Operation.CREATE, path, 0, start);
     }
 
-    int countFilesInDirectory(File file) {
-        int counted = Boolean.compare(file.exists(), false);
-        if (file.isDirectory())
-            for (File c : Objects.requireNonNull(file.listFiles()))
-                counted += countFilesInDirectory(c);
+    // Counts the given file and all files and directories below it, but stops walking the tree once the limit
+    // is exceeded (so a wrongly chosen directory is not walked completely just to reject it).
+    int countFilesInDirectory(File file, int limit) {
+        if (!file.exists())
+            return 0;
+        long start = StorageMetrics.start();
+        int counted = 0;
+        Deque<File> pending = new ArrayDeque<>();
+        pending.push(file);
+        while (!pending.isEmpty() && counted <= limit) {
+            counted++;
+            // listFiles() returns null for files, so files are not stat'ed separately
+            File[] children = pending.pop().listFiles();
+            if (children != null)
+                for (File c : children)
+                    pending.push(c);
+        }
+        StorageMetrics.record(Operation.SCAN, getMetricsPath(file), 0, start);
         return counted;
     }
 
     private int deleteFileOrDirectory(File file) {
         int deleted = 0;
-        if (file.isDirectory())
-            for (File c : Objects.requireNonNull(file.listFiles()))
+        File[] children = file.listFiles();
+        if (children != null)
+            for (File c : children)
                 deleted += deleteFileOrDirectory(c);
         deleted += Boolean.compare(file.delete(), false);
         return deleted;
@@ -148,16 +196,21 @@ public class Storage {
 
     private int copyFileOrDirectory(File src, File dst) {
         int copied = 0;
-        if (src.isDirectory()) {
+        File[] children = src.listFiles();
+        if (children != null) {
             copied += Boolean.compare(dst.mkdirs(), false);
-            for (File c : Objects.requireNonNull(src.listFiles()))
+            for (File c : children)
                 copied += copyFileOrDirectory(c, new File(dst, c.getName()));
         } else {
-            byte[] buffer = new byte[4096];
-            try (InputStream in = new FileInputStream(src); OutputStream out = new FileOutputStream(dst)) {
-                for (int len = in.read(buffer); len > 0; len = in.read(buffer))
-                    out.write(buffer, 0, len);
+            // lets the kernel copy the data where possible, instead of passing it through a buffer
+            long start = StorageMetrics.start();
+            try (FileChannel in = new FileInputStream(src).getChannel();
+                 FileChannel out = new FileOutputStream(dst).getChannel()) {
+                long size = in.size();
+                for (long position = 0; position < size; )
+                    position += in.transferTo(position, size - position, out);
                 copied++;
+                StorageMetrics.record(Operation.COPY, getMetricsPath(dst), size, start);
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -166,8 +219,10 @@ public class Storage {
     }
 
     void deleteFileOrDirectory(String path) {
+        long start = StorageMetrics.start();
         File f = getFile(path);
         deleteFileOrDirectory(f);
+        StorageMetrics.record(Operation.DELETE, path, 0, start);
     }
 
     void copyFileOrDirectory(File src, String dstPath) {
@@ -179,9 +234,11 @@ public class Storage {
     }
 
     private void createFile(String path) {
+        long start = StorageMetrics.start();
         File f = getFile(path);
         if (f.getParentFile() != null && !f.getParentFile().exists())
-            createDirectory(new File(path).getParent());
+            //noinspection ResultOfMethodCallIgnored
+            f.getParentFile().mkdirs();
 
         try {
             //noinspection ResultOfMethodCallIgnored
@@ -189,6 +246,7 @@ public class Storage {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        StorageMetrics.record(Operation.CREATE, path, 0, start);
     }
 
     void prepareFile(String path) {
@@ -200,28 +258,136 @@ public class Storage {
         Stream.of(paths).forEach(this::prepareFile);
     }
 
-    void writeFile(String path, String content) {
-        deleteFileOrDirectory(path);
-        createFile(path);
+    // Writes the given stream to a file (without closing the stream), returns how many bytes have been written.
+    long writeFile(String path, InputStream inputStream) throws IOException {
+        long start = StorageMetrics.start();
+        File file = getFile(path);
+        //noinspection ResultOfMethodCallIgnored
+        file.getParentFile().mkdirs();
+        long written = 0;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (OutputStream out = new FileOutputStream(file)) {
+            for (int len = inputStream.read(buffer); len > 0; len = inputStream.read(buffer)) {
+                out.write(buffer, 0, len);
+                written += len;
+            }
+        }
+        StorageMetrics.record(Operation.WRITE, path, written, start);
+        return written;
+    }
+
+    // Replaces the destination directory with the source directory by renaming, so the destination is always complete.
+    boolean replaceDirectory(String path, String dstPath) {
+        long start = StorageMetrics.start();
+        File src = getFile(path), dst = getFile(dstPath), old = getFile(dstPath + ".old");
+        deleteFileOrDirectory(old);
+        if (dst.exists() && !dst.renameTo(old))
+            return false;
+        if (!src.renameTo(dst)) {
+            //noinspection ResultOfMethodCallIgnored
+            old.renameTo(dst);
+            return false;
+        }
+        deleteFileOrDirectory(old);
+        StorageMetrics.record(Operation.RENAME, dstPath, 0, start);
+        return true;
+    }
+
+    static String toHexString(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes)
+            sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    // Replaces the file's content atomically: the content is written to a temporary file, synced to disk, and then
+    // renamed over the file, so the file is never truncated, even if the app crashes while writing. The directory is
+    // synced after the rename, so the new content also survives a power loss once this returns. Files that
+    // already have the given content are not written at all. Returns whether the content has changed, so callers may
+    // skip work that depends on the file's content, and throws if it could not be written (leaving the file as it was).
+    boolean writeFile(String path, String content) throws IOException {
+        long start = StorageMetrics.start();
+        File file = getFile(path);
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        if (hasContent(file, bytes)) {
+            StorageMetrics.record(Operation.COMPARE, path, bytes.length, start);
+            return false;
+        }
+
+        File temporary = new File(file.getPath() + TEMPORARY_EXTENSION);
+        //noinspection ResultOfMethodCallIgnored
+        file.getParentFile().mkdirs();
+        try (FileOutputStream out = new FileOutputStream(temporary)) {
+            out.write(bytes);
+            out.getFD().sync();
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            temporary.delete();
+            throw e;
+        }
+        // directories are replaced as well, which writing to them would not have done either
+        if (file.isDirectory())
+            deleteFileOrDirectory(file);
+        try {
+            Os.rename(temporary.getPath(), file.getPath());
+        } catch (ErrnoException e) {
+            //noinspection ResultOfMethodCallIgnored
+            temporary.delete();
+            throw new IOException("could not rename " + temporary + " to " + file, e);
+        }
+        syncDirectory(file.getParentFile());
+        StorageMetrics.record(Operation.WRITE, path, bytes.length, start);
+        return true;
+    }
+
+    // Syncs the directory's entries to disk, which persists renames into it (syncing the file only persists its content).
+    private static void syncDirectory(File directory) throws IOException {
         try {
-            FileWriter writer = new FileWriter(getFile(path));
-            writer.write(content);
-            writer.close();
+            FileDescriptor fd = Os.open(directory.getPath(), OsConstants.O_RDONLY, 0);
+            try {
+                Os.fsync(fd);
+            } finally {
+                Os.close(fd);
+            }
+        } catch (ErrnoException e) {
+            throw new IOException("could not sync " + directory, e);
+        }
+    }
+
+    // Whether the file has exactly the given content, compared byte by byte (the size is checked first,
+    // so changed files are usually not read at all).
+    private static boolean hasContent(File file, byte[] bytes) {
+        if (!file.isFile() || file.length() != bytes.length)
+            return false;
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[Math.min(Math.max(bytes.length, 1), BUFFER_SIZE)];
+            int offset = 0;
+            for (int len = in.read(buffer); len > 0; len = in.read(buffer)) {
+                if (offset + len > bytes.length)
+                    return false;
+                for (int i = 0; i < len; i++)
+                    if (buffer[i] != bytes[offset + i])
+                        return false;
+                offset += len;
+            }
+            return offset == bytes.length;
         } catch (IOException e) {
-            e.printStackTrace();
+            return false;
         }
     }
 
     Optional<String> findInDirectory(String path, String regex) {
+        long start = StorageMetrics.start();
         final File dir = getFile(path);
-        if (!dir.isDirectory())
-            return Optional.empty();
-
-        for (final File child : Objects.requireNonNull(dir.listFiles()))
-            if (child.getName().matches(regex))
-                return Optional.of(getRelativePath(path, child));
-
-        return Optional.empty();
+        Optional<String> found = Optional.empty();
+        if (dir.isDirectory())
+            for (final File child : Objects.requireNonNull(dir.listFiles()))
+                if (child.getName().matches(regex)) {
+                    found = Optional.of(getRelativePath(path, child));
+                    break;
+                }
+        StorageMetrics.record(Operation.SCAN, path, 0, start);
+        return found;
     }
 
     @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2019-2020 Vera Clemens, Tom Kranz, Tom Heimbrodt, Elias Kuiter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.scionlab.scion.as;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.scionlab.scion.as.Config.Storage.*;
+
+/**
+ * Counts the file operations done through Storage, so it can be told how much of a start is spent on I/O.
+ * Operations are grouped by storage tier (e.g., EXTERNAL) and logical path (the first directory below the tier,
+ * e.g., config or logs), and for each group, the number of operations, the bytes they read or wrote, and their
+ * latency (as a histogram with decimal buckets) are recorded. The metrics are shared by all Storage instances,
+ * and are exported along with the startup trace (see Tracer). If METRICS is disabled, start() does not even
+ * read the clock, and nothing is recorded.
+ */
+class StorageMetrics {
+    private static final Map<String, Stats> stats = new ConcurrentHashMap<>();
+    private static final long[] HISTOGRAM_BOUNDS = {10, 100, 1000, 10000, 100000, 1000000}; // in µs
+    private static final String[] HISTOGRAM_NAMES = {"under10us", "under100us", "under1ms", "under10ms",
+            "under100ms", "under1s", "over1s"};
+
+    enum Operation {
+        READ, COMPARE, WRITE, COPY, CREATE, DELETE, RENAME, SCAN;
+
+        String getName() {
+            return name().toLowerCase();
+        }
+    }
+
+    private static class Stats {
+        private long count, bytes, totalLatency, maxLatency; // latency in µs
+        private final long[] histogram = new long[HISTOGRAM_NAMES.length];
+
+        synchronized void add(long bytes, long latency) {
+            count++;
+            this.bytes += bytes;
+            totalLatency += latency;
+            maxLatency = Math.max(maxLatency, latency);
+            int bucket = 0;
+            while (bucket < HISTOGRAM_BOUNDS.length && latency >= HISTOGRAM_BOUNDS[bucket])
+                bucket++;
+            histogram[bucket]++;
+        }
+
+        synchronized void putMetrics(Map<String, Long> metrics, String prefix) {
+            metrics.put(prefix + "count", count);
+            metrics.put(prefix + "bytes", bytes);
+            metrics.put(prefix + "averageUs", count > 0 ? totalLatency / count : 0);
+            metrics.put(prefix + "maxUs", maxLatency);
+            for (int i = 0; i < histogram.length; i++)
+                if (histogram[i] > 0)
+                    metrics.put(prefix + HISTOGRAM_NAMES[i], histogram[i]);
+        }
+    }
+
+    static boolean isEnabled() {
+        return METRICS;
+    }
+
+    // Returns the time an operation starts at, to be passed to record() when it is done.
+    static long start() {
+        return METRICS ? System.nanoTime() : 0;
+    }
+
+    // Records an operation on the given path (relative to its tier, e.g., EXTERNAL/config/topology.json).
+    static void record(Operation operation, String path, long bytes, long start) {
+        if (!METRICS || path == null)
+            return;
+        long latency = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+        String key = getGroup(path) + "/" + operation.getName();
+        Stats _stats = stats.get(key);
+        if (_stats == null)
+            _stats = stats.computeIfAbsent(key, _key -> new Stats());
+        _stats.add(bytes, latency);
+    }
+
+    // The tier and first path segment, e.g., EXTERNAL/config for EXTERNAL/config/certs/ISD1-V1.trc (and for
+    // EXTERNAL/config itself). Paths outside the app's storage are grouped under OTHER.
+    private static String getGroup(String path) {
+        int tierEnd = path.indexOf('/');
+        String tier = tierEnd < 0 ? null : path.substring(0, tierEnd);
+        if (!EXTERNAL_TIER.equals(tier) && !INTERNAL_TIER.equals(tier) && !ASSETS_TIER.equals(tier))
+            return OTHER_TIER;
+        int segmentEnd = path.indexOf('/', tierEnd + 1);
+        return segmentEnd < 0 ? path : path.substring(0, segmentEnd);
+    }
+
+    // Discards all recorded operations (e.g., when a new startup trace is started).
+    static void reset() {
+        stats.clear();
+    }
+
+    // Returns the metrics of all groups and operations, keyed like EXTERNAL/config/write.count.
+    static Map<String, Long> getMetrics() {
+        List<String> keys = new ArrayList<>(stats.keySet());
+        Collections.sort(keys);
+        Map<String, Long> metrics = new LinkedHashMap<>();
+        for (String key : keys) {
+            Stats _stats = stats.get(key);
+            if (_stats != null)
+                _stats.putMetrics(metrics, key + ".");
+        }
+        return metrics;
+    }
+}
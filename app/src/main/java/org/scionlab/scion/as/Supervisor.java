@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2019-2020 Vera Clemens, Tom Kranz, Tom Heimbrodt, Elias Kuiter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.scionlab.scion.as;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import timber.log.Timber;
+
+import static org.scionlab.scion.as.Config.Supervisor.*;
+
+/**
+ * Brings back components that exited on their own (i.e., without having been stopped), similar
+ * to the Restart= option of systemd services. Whether a component is restarted depends on its
+ * restart policy, and restarts are delayed with exponential backoff and jitter. A component that
+ * keeps crashing (more than CRASH_LOOP_RESTARTS times within CRASH_LOOP_WINDOW) is given up on.
+ * Along with the exited component, all components that depend on it are restarted.
+ */
+class Supervisor {
+    private final ComponentRegistry componentRegistry;
+    private final Map<Class<? extends Component>, Restarts> restarts = new HashMap<>();
+    private final Random random = new Random();
+
+    enum RestartPolicy {
+        ALWAYS, ON_FAILURE, NEVER
+    }
+
+    private static class Restarts {
+        private int attempts;
+        private final ArrayDeque<Long> times = new ArrayDeque<>();
+        private Scheduler.Task pending;
+    }
+
+    Supervisor(ComponentRegistry componentRegistry) {
+        this.componentRegistry = componentRegistry;
+    }
+
+    // Called when a component's thread has exited although the component has not been stopped.
+    synchronized void componentExited(Component component) {
+        Timber.Tree timber = Timber.tag(component.getClass().getSimpleName());
+        RestartPolicy restartPolicy = component.getRestartPolicy();
+        boolean failed = component.hasFailed();
+        if (restartPolicy == RestartPolicy.NEVER || (restartPolicy == RestartPolicy.ON_FAILURE && !failed)) {
+            timber.i("component exited, not restarting it");
+            return;
+        }
+
+        Restarts _restarts = restarts.get(component.getClass());
+        if (_restarts == null)
+            restarts.put(component.getClass(), _restarts = new Restarts());
+        // a component that ran for a while has recovered, so start over with the shortest delay
+        if (component.getRunTime() >= RESTART_RESET_TIME)
+            _restarts.attempts = 0;
+
+        long now = componentRegistry.getScheduler().now();
+        _restarts.times.addLast(now);
+        while (_restarts.times.peekFirst() < now - CRASH_LOOP_WINDOW)
+            _restarts.times.removeFirst();
+        if (_restarts.times.size() > CRASH_LOOP_RESTARTS) {
+            timber.e("component is crash looping (exited %d times within %d s), giving up",
+                    _restarts.times.size(), TimeUnit.MILLISECONDS.toSeconds(CRASH_LOOP_WINDOW));
+            restarts.remove(component.getClass());
+            return;
+        }
+
+        // exponential backoff, randomly shortened so components crashing together do not restart in lockstep
+        long delay = Math.min(RESTART_BACKOFF_MAX, RESTART_BACKOFF_MIN << Math.min(_restarts.attempts, 20));
+        delay -= (long) (delay * RESTART_JITTER * random.nextDouble());
+        _restarts.attempts++;
+        timber.w("component %s, restarting it in %d ms (attempt %d)",
+                failed ? "failed" : "exited", delay, _restarts.attempts);
+        // restarting blocks until the component's dependents have stopped, so do not block the scheduler
+        _restarts.pending = componentRegistry.getScheduler().schedule(this, "restart", delay, () -> {
+            Thread thread = new Thread(() -> componentRegistry.restart(component));
+            thread.setUncaughtExceptionHandler(componentRegistry.getUncaughtExceptionHandler());
+            thread.start();
+        });
+    }
+
+    // Cancels a pending restart, e.g., when the component is unregistered.
+    synchronized void cancel(Component component) {
+        Restarts _restarts = restarts.remove(component.getClass());
+        if (_restarts != null && _restarts.pending != null)
+            _restarts.pending.cancel();
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2019-2020 Vera Clemens, Tom Kranz, Tom Heimbrodt, Elias Kuiter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.scionlab.scion.as;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A configuration file template from the assets folder, with named placeholders like {{config_dir}}.
+ * Templates are read and compiled once per process (see get()) into literal fragments and placeholder slots,
+ * so rendering them only concatenates strings into a buffer that is reused by the rendering thread.
+ * Which placeholders a template has is declared by its user and checked when compiling, so a template and
+ * the code that renders it cannot silently drift apart.
+ */
+class Template {
+    private static final Pattern PLACEHOLDER_PATTERN = Pattern.compile("\\{\\{([a-z_]+)}}");
+    private static final Map<String, Template> templates = new ConcurrentHashMap<>();
+    @SuppressWarnings("AnonymousHasLambdaAlternative") // ThreadLocal.withInitial requires API level 26
+    private static final ThreadLocal<StringBuilder> buffers = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder();
+        }
+    };
+    private final String path;
+    private final String[] placeholders;
+    private final String[] fragments; // literal text between placeholders, one more than there are slots
+    private final int[] slots; // for each placeholder occurrence, the index of the placeholder it refers to
+    private final int length; // length of all fragments, which the rendered template has at least
+
+    private Template(String path, String[] placeholders, String[] fragments, int[] slots) {
+        this.path = path;
+        this.placeholders = placeholders;
+        this.fragments = fragments;
+        this.slots = slots;
+        int length = 0;
+        for (String fragment : fragments)
+            length += fragment.length();
+        this.length = length;
+    }
+
+    // Returns the compiled template at the given asset path, which has to contain exactly the given placeholders.
+    static Template get(Storage storage, String path, String... placeholders) {
+        Template template = templates.computeIfAbsent(path, _path ->
+                compile(path, storage.readAssetFile(path), placeholders));
+        if (!Arrays.equals(template.placeholders, placeholders))
+            throw new IllegalArgumentException(String.format("template %s was compiled with placeholders %s, not %s",
+                    path, Arrays.toString(template.placeholders), Arrays.toString(placeholders)));
+        return template;
+    }
+
+    private static Template compile(String path, String text, String[] placeholders) {
+        List<String> declared = Arrays.asList(placeholders);
+        boolean[] used = new boolean[placeholders.length];
+        List<String> fragments = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        Matcher matcher = PLACEHOLDER_PATTERN.matcher(text);
+        int start = 0;
+        while (matcher.find()) {
+            int slot = declared.indexOf(matcher.group(1));
+            if (slot < 0)
+                throw new IllegalArgumentException(String.format("template %s has undeclared placeholder %s",
+                        path, matcher.group(1)));
+            used[slot] = true;
+            fragments.add(text.substring(start, matcher.start()));
+            slots.add(slot);
+            start = matcher.end();
+        }
+        fragments.add(text.substring(start));
+        for (int i = 0; i < placeholders.length; i++)
+            if (!used[i])
+                throw new IllegalArgumentException(String.format("template %s lacks placeholder %s",
+                        path, placeholders[i]));
+
+        int[] slotArray = new int[slots.size()];
+        for (int i = 0; i < slotArray.length; i++)
+            slotArray[i] = slots.get(i);
+        return new Template(path, placeholders.clone(), fragments.toArray(new String[0]), slotArray);
+    }
+
+    // Starts rendering the template by binding the given placeholder (see Binding).
+    Binding with(String placeholder, Object value) {
+        return new Binding().with(placeholder, value);
+    }
+
+    /**
+     * Values bound to a template's placeholders. Every placeholder has to be bound before rendering.
+     */
+    class Binding {
+        private final String[] values = new String[placeholders.length];
+
+        private Binding() {
+        }
+
+        Binding with(String placeholder, Object value) {
+            int slot = Arrays.asList(placeholders).indexOf(placeholder);
+            if (slot < 0)
+                throw new IllegalArgumentException(String.format("template %s has no placeholder %s", path, placeholder));
+            values[slot] = String.valueOf(value);
+            return this;
+        }
+
+        String render() {
+            int length = Template.this.length;
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] == null)
+                    throw new IllegalStateException(String.format("placeholder %s of template %s is not bound",
+                            placeholders[i], path));
+                length += values[i].length();
+            }
+
+            StringBuilder buffer = buffers.get();
+            buffer.setLength(0);
+            buffer.ensureCapacity(length);
+            buffer.append(fragments[0]);
+            for (int i = 0; i < slots.length; i++)
+                buffer.append(values[slots[i]]).append(fragments[i + 1]);
+            return buffer.toString();
+        }
+    }
+}
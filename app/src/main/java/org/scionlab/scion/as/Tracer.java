@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2019-2020 Vera Clemens, Tom Kranz, Tom Heimbrodt, Elias Kuiter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.scionlab.scion.as;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import timber.log.Timber;
+
+import static org.scionlab.scion.as.Config.Tracer.*;
+
+/**
+ * Records how long the phases of starting a SCION AS take, so slow starts can be diagnosed.
+ * A span covers one phase (e.g., preparing a component) and belongs to a category (the SCION
+ * AS itself or a component). Spans are kept in memory until the next trace is started, and
+ * can be exported in the Chrome trace event format (to be opened with Perfetto or chrome://tracing).
+ */
+class Tracer {
+    private static final String PROCESS_NAME = "SCION AS";
+    private static final List<Span> spans = new ArrayList<>();
+    private static long traceStart = System.nanoTime();
+
+    static class Span implements AutoCloseable {
+        private final String category, name;
+        private final long start;
+        private long end = -1;
+
+        private Span(String category, String name) {
+            this.category = category;
+            this.name = name;
+            start = System.nanoTime();
+        }
+
+        String getCategory() {
+            return category;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        // start and end relative to the start of the trace, in µs
+        long getStart() {
+            return TimeUnit.NANOSECONDS.toMicros(start - traceStart);
+        }
+
+        long getEnd() {
+            return TimeUnit.NANOSECONDS.toMicros((end < 0 ? System.nanoTime() : end) - traceStart);
+        }
+
+        long getDuration() {
+            return getEnd() - getStart();
+        }
+
+        boolean hasEnded() {
+            return end >= 0;
+        }
+
+        // Ends the span, further calls have no effect.
+        synchronized void end() {
+            if (end < 0)
+                end = System.nanoTime();
+        }
+
+        @Override
+        public void close() {
+            end();
+        }
+    }
+
+    // Discards all recorded spans and starts a new trace.
+    static synchronized void reset() {
+        spans.clear();
+        traceStart = System.nanoTime();
+    }
+
+    // Begins a span, which should be ended with end() (or used in a try-with-resources statement).
+    static synchronized Span begin(String category, String name) {
+        Span span = new Span(category, name);
+        if (spans.size() < MAX_SPANS)
+            spans.add(span);
+        return span;
+    }
+
+    static synchronized List<Span> getSpans() {
+        return new ArrayList<>(spans);
+    }
+
+    // Writes all spans as Chrome trace events, with one track per category. The given metrics are
+    // stored as the trace's metadata, which trace viewers show alongside the trace.
+    static void export(File file, Map<String, Long> metrics) {
+        List<Span> spans = getSpans();
+        Map<String, Integer> tracks = new LinkedHashMap<>();
+        for (Span span : spans)
+            if (!tracks.containsKey(span.getCategory()))
+                tracks.put(span.getCategory(), tracks.size() + 1);
+
+        //noinspection ResultOfMethodCallIgnored
+        file.getParentFile().mkdirs();
+        try (Writer writer = new FileWriter(file)) {
+            writer.write("{\"traceEvents\":[\n");
+            writer.write(String.format("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":1,\"args\":{\"name\":%s}}",
+                    JSONObject.quote(PROCESS_NAME)));
+            for (Map.Entry<String, Integer> track : tracks.entrySet())
+                writer.write(String.format(",\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":%d,\"args\":{\"name\":%s}}",
+                        track.getValue(), JSONObject.quote(track.getKey())));
+            for (Span span : spans)
+                writer.write(String.format(",\n{\"name\":%s,\"cat\":%s,\"ph\":\"X\",\"pid\":1,\"tid\":%d,\"ts\":%d,\"dur\":%d}",
+                        JSONObject.quote(span.getName()), JSONObject.quote(span.getCategory()),
+                        tracks.get(span.getCategory()), span.getStart(), span.getDuration()));
+            writer.write("\n],\n\"metadata\":{");
+            String separator = "";
+            for (Map.Entry<String, Long> metric : metrics.entrySet()) {
+                writer.write(String.format("%s\n%s:%d", separator, JSONObject.quote(metric.getKey()), metric.getValue()));
+                separator = ",";
+            }
+            writer.write("\n}}\n");
+        } catch (IOException e) {
+            Timber.e(e);
+        }
+    }
+
+    // Logs the chain of components that determined how long it took until the given components were
+    // all ready: starting from the component that was ready last, repeatedly follow the dependency
+    // that was ready last (i.e., the one the component had to wait for).
+    static void logCriticalPath(Collection<Component> components, Map<String, List<String>> dependencies) {
+        List<Span> spans = getSpans();
+        Map<String, Map<String, Span>> spansByCategory = new HashMap<>();
+        for (Span span : spans) {
+            Map<String, Span> _spans = spansByCategory.get(span.getCategory());
+            if (_spans == null)
+                spansByCategory.put(span.getCategory(), _spans = new LinkedHashMap<>());
+            _spans.put(span.getName(), span);
+        }
+
+        String last = null;
+        for (Component component : components) {
+            Span ready = getSpan(spansByCategory, component.getTag(), STARTUP_SPAN);
+            Span lastReady = getSpan(spansByCategory, last, STARTUP_SPAN);
+            if (ready != null && (lastReady == null || ready.getEnd() > lastReady.getEnd()))
+                last = component.getTag();
+        }
+        if (last == null)
+            return;
+
+        List<String> criticalPath = new ArrayList<>();
+        for (String category = last; category != null; ) {
+            criticalPath.add(0, category);
+            String next = null;
+            List<String> _dependencies = dependencies.get(category);
+            if (_dependencies != null)
+                for (String dependency : _dependencies) {
+                    Span ready = getSpan(spansByCategory, dependency, STARTUP_SPAN);
+                    Span nextReady = getSpan(spansByCategory, next, STARTUP_SPAN);
+                    if (ready != null && (nextReady == null || ready.getEnd() > nextReady.getEnd()))
+                        next = dependency;
+                }
+            category = criticalPath.contains(next) ? null : next;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        Map<String, Span> setup = spansByCategory.get(SETUP_CATEGORY);
+        if (setup != null)
+            for (Span span : setup.values())
+                sb.append(String.format("%s %d ms, ", span.getName(), toMillis(span.getDuration())));
+        for (String category : criticalPath) {
+            sb.append(category).append(" (");
+            for (Span span : spansByCategory.get(category).values())
+                sb.append(String.format("%s %d ms, ", span.getName(), toMillis(span.getDuration())));
+            sb.setLength(sb.length() - 2);
+            sb.append("), ");
+        }
+        sb.setLength(sb.length() - 2);
+        Timber.i("ready after %d ms, critical path: %s", toMillis(
+                getSpan(spansByCategory, last, STARTUP_SPAN).getEnd()), sb);
+    }
+
+    private static Span getSpan(Map<String, Map<String, Span>> spansByCategory, String category, String name) {
+        Map<String, Span> spans = spansByCategory.get(category);
+        return spans == null ? null : spans.get(name);
+    }
+
+    private static long toMillis(long micros) {
+        return TimeUnit.MICROSECONDS.toMillis(micros);
+    }
+}
@@ -25,6 +25,8 @@ import android.content.ServiceConnection;
 import android.os.IBinder;
 import android.os.RemoteException;
 
+import java.util.concurrent.CountDownLatch;
+
 import de.blinkt.openvpn.api.IOpenVPNAPIService;
 import de.blinkt.openvpn.api.IOpenVPNStatusCallback;
 import timber.log.Timber;
@@ -35,23 +37,31 @@ class VPNClient extends Component {
     private Service service;
     private String config;
     private IOpenVPNAPIService openVPNAPIService;
-    private boolean shouldCrash, restarted;
+    private volatile boolean shouldCrash, restarted, stoppedByUser;
+    private CountDownLatch crashed;
 
     VPNClient(Service service, String config) {
         this.service = service;
         this.config = config;
     }
 
+    @Override
+    boolean hasFailed() {
+        // do not restart the VPN client against the user's will
+        return shouldCrash && !stoppedByUser;
+    }
+
+    private void crash() {
+        shouldCrash = true;
+        crashed.countDown();
+    }
+
     @Override
     void run() {
+        shouldCrash = restarted = stoppedByUser = false;
+        crashed = new CountDownLatch(1);
         if (config == null) {
-            new Thread(() -> {
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException ignored) {
-                }
-                setReady();
-            }).start();
+            schedule("dummyReady", DUMMY_READY_DELAY, this::setReady);
             try {
                 //noinspection InfiniteLoopStatement
                 while (true)
@@ -75,13 +85,15 @@ class VPNClient extends Component {
                     case NOPROCESS_STATE:
                         if (getState() == State.READY) {
                             Timber.e("VPN client stopped by user");
-                            shouldCrash = true;
+                            stoppedByUser = true;
+                            crash();
                         }
                         break;
                     case VPN_GENERATE_CONFIG:
                         if (restarted) {
                             Timber.e("VPN client restarted by user");
-                            shouldCrash = true;
+                            stoppedByUser = true;
+                            crash();
                         }
                         restarted = true;
                         break;
@@ -108,21 +120,20 @@ class VPNClient extends Component {
                     openVPNAPIService.startVPN(config);
                 } catch (RemoteException e) {
                     Timber.e(e);
-                    shouldCrash = true;
+                    crash();
                 }
             }
 
             public void onServiceDisconnected(ComponentName className) {
                 Timber.e("lost connection to VPN service");
                 openVPNAPIService = null;
-                shouldCrash = true;
+                crash();
             }
         };
 
         try {
             service.bindService(intent, serviceConnection, Context.BIND_AUTO_CREATE);
-            while (!shouldCrash)
-                Thread.sleep(CRASH_INTERVAL);
+            crashed.await();
         } catch (InterruptedException ignored) {
         }
 